@@ -0,0 +1,167 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The hot paths of the mining: joining the itemsets of the last level into candidates, bounding
+ * the utility of a candidate in a transaction, and a whole counting pass of the second level.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AprioriBenchmark {
+  private static final int OPERATIONS = 1024;
+
+  /** A miner whose first level is found again before every invocation. */
+  @State(Scope.Thread)
+  public static class FirstLevel {
+    @Param({"50000"})
+    public int numTransactions;
+
+    @Param({"0.001"})
+    public double minSup;
+
+    Apriori apriori;
+
+    @Setup(Level.Trial)
+    public void load() {
+      apriori = new Apriori();
+      apriori.setDatabase(SyntheticData.generate(numTransactions, 500, 10, 42));
+      apriori.setMinSup(minSup);
+    }
+
+    @Setup(Level.Invocation)
+    public void firstLevel() {
+      apriori.firstLevel();
+      if (!apriori.hasNextLevel()) {
+        throw new IllegalStateException("No candidates in the second level, lower minSup");
+      }
+    }
+  }
+
+  /** A miner after its second level, with the operands of the small benchmarks. */
+  @State(Scope.Thread)
+  public static class SecondLevel {
+    @Param({"50000"})
+    public int numTransactions;
+
+    @Param({"0.001"})
+    public double minSup;
+
+    Apriori apriori;
+    TransactionDatabase working;
+    MaxFollow follow;
+    int[][] itemsets = new int[OPERATIONS][];
+    int[] tids = new int[OPERATIONS];
+    int[] positions = new int[OPERATIONS];
+    int[] gaps = new int[OPERATIONS];
+
+    @Setup(Level.Trial)
+    public void load() {
+      apriori = new Apriori();
+      apriori.setDatabase(SyntheticData.generate(numTransactions, 500, 10, 42));
+      apriori.setMinSup(minSup);
+      apriori.firstLevel();
+      apriori.nextLevel();
+
+      List<int[]> combined = apriori.getCombinedItemsets();
+      if (combined.isEmpty()) {
+        throw new IllegalStateException("No itemsets in the second level, lower minSup");
+      }
+      working = apriori.getWorkingDatabase();
+      follow = apriori.newMaxFollow();
+      // the operands are real matches, combined itemsets found in transactions spread over the
+      // database, so the bounds are taken as the counting pass takes them
+      int tid = 0;
+      for (int i = 0; i < OPERATIONS; ++i) {
+        tid = Integer.max(tid, (int) ((long) i * working.size() / OPERATIONS));
+        int tried = 0;
+        while (!match(combined, i, tid)) {
+          if (++tried == working.size()) {
+            throw new IllegalStateException("No transaction contains a combined itemset");
+          }
+          tid = (tid + 1) % working.size();
+        }
+      }
+    }
+
+    // finds a combined itemset in transaction tid, from the one of the operation on, and keeps it
+    // as the operands of the operation with the largest gap value before its last item
+    private boolean match(List<int[]> combined, int operation, int tid) {
+      for (int c = 0; c < combined.size(); ++c) {
+        int[] itemset = combined.get((operation + c) % combined.size());
+        int position = findPosition(working, tid, itemset);
+        if (position < 0) {
+          continue;
+        }
+        follow.prepare(working, tid);
+        int start = working.offsets()[tid];
+        int[] items = working.items();
+        int gap = 0;
+        for (int p = start, k = 0; p < position; ++p) {
+          if (items[p] == itemset[k]) {
+            ++k;
+          } else {
+            gap = Integer.max(gap, follow.gaps()[p - start]);
+          }
+        }
+        itemsets[operation] = itemset;
+        tids[operation] = tid;
+        positions[operation] = position;
+        gaps[operation] = gap;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /** The position of the last item of itemset in transaction tid, or -1 if it does not hold it. */
+  static int findPosition(TransactionDatabase database, int tid, int[] itemset) {
+    int[] items = database.items();
+    int k = 0;
+    for (int p = database.offsets()[tid]; p < database.offsets()[tid + 1]; ++p) {
+      if (items[p] == itemset[k] && ++k == itemset.length) {
+        return p;
+      }
+      if (items[p] > itemset[k]) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  @Benchmark
+  public int nextLevel(FirstLevel state) {
+    state.apriori.nextLevel();
+    return state.apriori.getCombinedItemsets().size();
+  }
+
+  @Benchmark
+  public int joinCandidates(SecondLevel state) {
+    return state.apriori.joinCandidates().size();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPERATIONS)
+  public void checkMaxFollow(SecondLevel state, Blackhole blackhole) {
+    MaxFollow follow = state.follow;
+    for (int i = 0; i < OPERATIONS; ++i) {
+      follow.prepare(state.working, state.tids[i]);
+      follow.check(state.itemsets[i].length, state.positions[i], state.gaps[i]);
+      blackhole.consume(follow.max);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The time to load a data set file, in the text format and in the binary one.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReadFileBenchmark {
+  @Param({"100000"})
+  public int numTransactions;
+
+  @Param({"text", "binary"})
+  public String format;
+
+  private Path file;
+  private Apriori apriori;
+
+  @Setup(Level.Trial)
+  public void writeFile() throws IOException {
+    TransactionDatabase database = SyntheticData.generate(numTransactions, 1000, 10, 42);
+    file = Files.createTempFile("apriori_haui", "." + format);
+    if (format.equals("binary")) {
+      BinaryDataset.write(database, file);
+    } else {
+      SyntheticData.writeText(database, file);
+    }
+    apriori = new Apriori();
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteFile() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public long readFile() {
+    apriori.readFile(file.toString());
+    return apriori.getTotalUtility();
+  }
+}
@@ -0,0 +1,76 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reproducible transaction databases for the benchmarks. The items are skewed towards the small
+ * IDs, so a few items are frequent and most of them are rare, as in real sale records.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class SyntheticData {
+  private SyntheticData() {}
+
+  static TransactionDatabase generate(
+      int numTransactions, int numItems, int averageLength, long seed) {
+    Random random = new Random(seed);
+    TransactionDatabase database =
+        new TransactionDatabase(numTransactions, numTransactions * averageLength);
+    int[] itemBuffer = new int[numItems];
+    int[] utilityBuffer = new int[numItems];
+    boolean[] taken = new boolean[numItems + 1];
+
+    for (int t = 0; t < numTransactions; ++t) {
+      int length = Integer.min(numItems, 1 + random.nextInt(2 * averageLength - 1));
+      for (int i = 0; i < length; ++i) {
+        int item;
+        do {
+          double x = random.nextDouble();
+          item = 1 + (int) (numItems * x * x);
+        } while (taken[item]);
+        taken[item] = true;
+        itemBuffer[i] = item;
+      }
+      Arrays.sort(itemBuffer, 0, length);
+
+      int tranUtility = 0;
+      for (int i = 0; i < length; ++i) {
+        taken[itemBuffer[i]] = false;
+        utilityBuffer[i] = (1 + random.nextInt(5)) * (1 + random.nextInt(10));
+        tranUtility += utilityBuffer[i];
+      }
+      database.add(itemBuffer, utilityBuffer, length, tranUtility);
+    }
+
+    database.trimToSize();
+    return database;
+  }
+
+  /** Writes a database in the text format read by Apriori.readFile. */
+  static void writeText(TransactionDatabase database, Path path) throws IOException {
+    int[] items = database.items();
+    int[] utilities = database.utilities();
+    int[] offsets = database.offsets();
+    int[] tranUtility = database.tranUtilities();
+
+    try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+      StringBuilder line = new StringBuilder();
+      for (int t = 0; t < database.size(); ++t) {
+        line.setLength(0);
+        for (int i = offsets[t]; i < offsets[t + 1]; ++i) {
+          line.append(items[i]).append(i + 1 < offsets[t + 1] ? " " : ":");
+        }
+        line.append(tranUtility[t]).append(':');
+        for (int i = offsets[t]; i < offsets[t + 1]; ++i) {
+          line.append(utilities[i]).append(i + 1 < offsets[t + 1] ? " " : "\n");
+        }
+        writer.append(line);
+      }
+    }
+  }
+}
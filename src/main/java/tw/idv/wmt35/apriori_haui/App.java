@@ -2,12 +2,21 @@ package tw.idv.wmt35.apriori_haui;
 
 import static java.lang.System.exit;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 import org.apache.commons.cli.*;
-import tw.idv.wmt35.MutableDouble;
-import tw.idv.wmt35.Pair;
 
 /**
  * This class is the main class for apriori_haui It mines the high average utility from a
@@ -22,19 +31,49 @@ public final class App {
   private App() {}
 
   public static void main(String[] args) {
+    if (args.length > 0 && args[0].equals("convert")) {
+      convert(args);
+      return;
+    }
+
     Options options = new Options();
     options.addOption("h", false, "Lists Short Help");
     options.addOption("f", true, "Original Transaction Data Set Files");
-    options.addOption("m", true, "Set Minimal Utility Threshold");
+    options.addOption(
+        "m", true, "Set Minimal Utility Threshold, or Sweep a Comma Separated List of them");
     options.addOption("p", true, "Set PreLarge Threshold");
     options.addOption("c", false, "Check Minimal Utility Count");
     options.addOption("nlu", false, "Don't Use Lead Upperbound");
+    options.addOption("t", true, "Set Number of Threads");
+    options.addOption("oc", false, "Stream Data Set from Disk (Out-of-Core)");
+    options.addOption("pj", false, "Project and Merge Transactions after every Level");
+    // kept for the scripts written when projection was on by default
+    options.addOption("np", false, "Don't Project and Merge Transactions (default)");
+    // the vertical and depth-first engines can report pre-large itemsets the levelwise one misses:
+    // the levelwise join needs every subset of a candidate combined, even one never counted
+    options.addOption(
+        "e",
+        true,
+        "Mining Engine: levelwise, vertical or depthfirst (default levelwise),"
+            + " the last two can find more PreLarges");
+    options.addOption("b", true, "Memory Budget of the Candidates of a Level in MB");
+    options.addOption("k", true, "Mine the k Itemsets of the Highest Average Utility (Top-k)");
+    options.addOption("o", true, "Write the Itemsets to a File while they are Mined");
+    options.addOption("of", true, "Format of the Itemsets File: csv or binary (default csv)");
+    options.addOption("pn", true, "Number of Partitions Mined by Worker Processes (Partition)");
+    options.addOption("pd", true, "Work Directory of the Partitions (default a temporary one)");
+    options.addOption("w", true, "Mine a Sliding Window of the Last n Data Sets (Batches)");
+    options.addOption("ck", true, "Checkpoint every Level to a Directory and Resume from it");
+    options.addOption(
+        "st", true, "Keep the Incremental State in a File, and go on from it in the next Run");
+    options.addOption("j", true, "Write a JSON Summary with the Metrics of the Levels to a File");
     CommandLineParser parser = new DefaultParser();
     HelpFormatter hf = new HelpFormatter();
     hf.setWidth(150);
 
     String datasetFile = "";
     double minSup = 0.0;
+    double[] minSups = {};
     double preLargeThreshold = 0.0;
     long numTransaction;
     int maxItemID;
@@ -43,6 +82,25 @@ public final class App {
     double preLargeCount = 0.0;
     boolean applyPreLarge = false;
     boolean useLeadUpperbound = true;
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean streaming = false;
+    boolean useProjection = Apriori.DEFAULT_PROJECTION;
+    MiningEngine engine = Apriori.DEFAULT_ENGINE;
+    // in MB, 0 if the candidates are not limited
+    double memoryBudget = 0;
+    // 0 if the threshold is given
+    int topK = 0;
+    String summaryFile = null;
+    String outputFile = null;
+    ResultSink.Format outputFormat = ResultSink.Format.CSV;
+    // 0 if the data set is mined in this process
+    int numPartitions = 0;
+    String partitionDirectory = null;
+    // 0 if the data sets are mined incrementally without expiry
+    int windowSize = 0;
+    String checkpointDirectory = null;
+    // null if the incremental mining starts from the first data set
+    String stateFile = null;
     String[] fileArray = null;
 
     try {
@@ -50,11 +108,13 @@ public final class App {
       if (cmd.hasOption("c") && cmd.hasOption("f")) {
         datasetFile = cmd.getOptionValue("f");
         fileArray = datasetFile.split(",");
-        minSup = Double.parseDouble(cmd.getOptionValue("m"));
         Apriori apriori = new Apriori();
         apriori.readFile(fileArray[0]);
-        apriori.setMinSup(minSup);
-        System.out.println((int) Math.ceil(apriori.getMinSupCount()));
+        // one count per threshold of a sweep, from one reading of the data set
+        for (double threshold : parseThresholds(cmd.getOptionValue("m"))) {
+          apriori.setMinSup(threshold);
+          System.out.println((int) Math.ceil(apriori.getMinSupCount()));
+        }
         exit(0);
       }
 
@@ -77,7 +137,7 @@ public final class App {
         exit(1);
       }
 
-      if (!cmd.hasOption("f") || !cmd.hasOption("m")) {
+      if (!cmd.hasOption("f") || !(cmd.hasOption("m") || cmd.hasOption("k"))) {
         hf.printHelp("java -jar AprioriHaui.jar", options, true);
         System.out.println("===========================================================");
         exit(1);
@@ -85,31 +145,189 @@ public final class App {
 
       datasetFile = cmd.getOptionValue("f");
       fileArray = datasetFile.split(",");
-      minSup = Double.parseDouble(cmd.getOptionValue("m"));
+      if (cmd.hasOption("m")) {
+        minSups = parseThresholds(cmd.getOptionValue("m"));
+        minSup = Arrays.stream(minSups).min().getAsDouble();
+      }
 
       if (cmd.hasOption("p")) {
         preLargeThreshold = Double.parseDouble(cmd.getOptionValue("p"));
         applyPreLarge = true;
       }
 
-      if (minSup < 0 || minSup > 1) {
-        System.out.println("Minimal Utility Threshold should be set in 0 ~ 1");
+      for (double threshold : minSups) {
+        if (threshold < 0 || threshold > 1) {
+          System.out.println("Minimal Utility Threshold should be set in 0 ~ 1");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+      }
+      if (minSups.length > 1 && (fileArray.length > 1 || cmd.hasOption("k"))) {
+        System.out.println("A Threshold Sweep needs a single Data Set and no Top-k");
         System.out.println("===========================================================");
         exit(1);
       }
 
       useLeadUpperbound = !cmd.hasOption("nlu");
+      streaming = cmd.hasOption("oc");
+      useProjection = cmd.hasOption("pj") && !cmd.hasOption("np");
+
+      if (cmd.hasOption("e")) {
+        try {
+          engine = MiningEngine.forName(cmd.getOptionValue("e"));
+        } catch (IllegalArgumentException e) {
+          System.out.println("Mining Engine should be levelwise, vertical or depthfirst");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+        if (engine != MiningEngine.LEVEL_WISE && streaming) {
+          System.out.println("Only the Levelwise Engine can Stream the Data Set");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+      }
+
+      summaryFile = cmd.getOptionValue("j");
+      outputFile = cmd.getOptionValue("o");
+      if (cmd.hasOption("of")) {
+        try {
+          outputFormat = ResultSink.Format.forName(cmd.getOptionValue("of"));
+        } catch (IllegalArgumentException e) {
+          System.out.println("Format of the Itemsets File should be csv or binary");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+      }
+
+      if (cmd.hasOption("k")) {
+        topK = Integer.parseInt(cmd.getOptionValue("k"));
+        if (topK < 1) {
+          System.out.println("Number of Top-k Itemsets should be at least 1");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+        if (applyPreLarge || fileArray.length > 1) {
+          System.out.println("Top-k Mode cannot be used with PreLarge or Incremental Mining");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+        if (engine != MiningEngine.LEVEL_WISE) {
+          System.out.println("Only the Levelwise Engine can Mine the Top-k Itemsets");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+      }
+
+      if (cmd.hasOption("b")) {
+        memoryBudget = Double.parseDouble(cmd.getOptionValue("b"));
+        if (memoryBudget <= 0) {
+          System.out.println("Memory Budget should be greater than 0");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+      }
+
+      if (cmd.hasOption("t")) {
+        threads = Integer.parseInt(cmd.getOptionValue("t"));
+        if (threads < 1) {
+          System.out.println("Number of Threads should be at least 1");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+      }
+
+      if (cmd.hasOption("pn")) {
+        numPartitions = Integer.parseInt(cmd.getOptionValue("pn"));
+        partitionDirectory = cmd.getOptionValue("pd");
+        if (numPartitions < 1) {
+          System.out.println("Number of Partitions should be at least 1");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+        if (fileArray.length > 1 || streaming || topK > 0 || minSups.length > 1) {
+          System.out.println(
+              "Partitions need a single Data Set in Memory, and no Top-k or Threshold Sweep");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+      }
+
+      if (cmd.hasOption("w")) {
+        windowSize = Integer.parseInt(cmd.getOptionValue("w"));
+        if (windowSize < 1) {
+          System.out.println("Size of the Sliding Window should be at least 1");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+        if (fileArray.length < 2 || streaming) {
+          System.out.println("A Sliding Window needs several Data Sets in Memory");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+      }
+
+      if (cmd.hasOption("ck")) {
+        checkpointDirectory = cmd.getOptionValue("ck");
+        if (fileArray.length > 1
+            || engine != MiningEngine.LEVEL_WISE
+            || topK > 0
+            || minSups.length > 1
+            || numPartitions > 0
+            || outputFile != null) {
+          System.out.println(
+              "Checkpoints need a single Data Set mined by the Levelwise Engine, and no Top-k,");
+          System.out.println("Threshold Sweep, Partitions or Itemsets File");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+      }
+
+      if (cmd.hasOption("st")) {
+        stateFile = cmd.getOptionValue("st");
+        if (topK > 0
+            || minSups.length > 1
+            || numPartitions > 0
+            || windowSize > 0
+            || checkpointDirectory != null) {
+          System.out.println(
+              "A State File needs Incremental Mining, and no Top-k, Threshold Sweep, Partitions,");
+          System.out.println("Sliding Window or Checkpoints");
+          System.out.println("===========================================================");
+          exit(1);
+        }
+      }
     } catch (ParseException e) {
       e.printStackTrace();
     }
 
     Apriori apriori = new Apriori();
+    apriori.setThreads(threads);
+    apriori.setStreaming(streaming);
+    apriori.setProjection(useProjection);
+    apriori.setEngine(engine);
+    apriori.setMemoryBudget((long) (memoryBudget * 1024 * 1024));
+    apriori.setTopK(topK);
+    if (checkpointDirectory != null) {
+      apriori.setCheckpointDirectory(Paths.get(checkpointDirectory));
+    }
 
     if (!useLeadUpperbound) {
       apriori.setLeadUpperbound(false);
     }
 
-    if (fileArray.length == 1) {
+    ResultSink resultSink = null;
+    if (outputFile != null) {
+      try {
+        resultSink = new ResultSink(Paths.get(outputFile), outputFormat);
+      } catch (IOException e) {
+        System.out.println(
+            new StringBuilder("Cannot Write the Itemsets File: ").append(outputFile));
+        System.out.println("===========================================================");
+        exit(1);
+      }
+    }
+
+    if (fileArray.length == 1 && stateFile == null) {
       System.out.println("(Running Time Start TimeStamp)");
       long startTime = System.currentTimeMillis();
       System.out.println("Data Importing...");
@@ -117,6 +335,14 @@ public final class App {
       apriori.readFile(fileArray[0]);
       apriori.setMinSup(minSup);
       if (applyPreLarge) apriori.setPreLargeThreshold(preLargeThreshold);
+      ThresholdSweep sweep = null;
+      if (minSups.length > 1) {
+        sweep = new ThresholdSweep(minSups, apriori.getTotalUtility());
+        apriori.setThresholdSweep(sweep);
+        if (resultSink != null) {
+          resultSink.setThresholdSweep(sweep);
+        }
+      }
 
       numTransaction = apriori.getNumTransactions();
       maxItemID = apriori.getMaxItemID();
@@ -132,8 +358,20 @@ public final class App {
       System.out.println(new StringBuilder("Number of Transaction:     ").append(numTransaction));
       System.out.println(new StringBuilder("Maximal ID:                ").append(maxItemID));
       System.out.println(new StringBuilder("Total Utility:             ").append(totalUtility));
-      System.out.println(new StringBuilder("Minimal Utility Threshold: ").append(minSup));
-      System.out.println(new StringBuilder("Minimal Utility Count:     ").append(minSupCount));
+      System.out.println(
+          new StringBuilder("Bytes per Item:            ")
+              .append(String.format("%.2f", apriori.getBytesPerItem())));
+      if (topK > 0) {
+        System.out.println(new StringBuilder("Top-k Itemsets:            ").append(topK));
+      } else {
+        System.out.println(
+            new StringBuilder("Minimal Utility Threshold: ")
+                .append(
+                    Arrays.stream(minSups)
+                        .mapToObj(String::valueOf)
+                        .collect(Collectors.joining(","))));
+        System.out.println(new StringBuilder("Minimal Utility Count:     ").append(minSupCount));
+      }
       if (applyPreLarge) {
         System.out.println(
             new StringBuilder("PreLarge Threshold:        ").append(preLargeThreshold));
@@ -145,47 +383,258 @@ public final class App {
       } else {
         System.out.println("No");
       }
+      System.out.println(new StringBuilder("Number of Threads:         ").append(threads));
+      System.out.print("Out-of-Core Streaming:     ");
+      if (apriori.getStreaming()) {
+        System.out.println("Yes");
+      } else {
+        System.out.println("No");
+      }
+      System.out.print("Transaction Projection:    ");
+      if (apriori.getProjection()
+          && !apriori.getStreaming()
+          && apriori.getEngine() == MiningEngine.LEVEL_WISE) {
+        System.out.println("Yes");
+      } else {
+        System.out.println("No");
+      }
+      System.out.println(new StringBuilder("Mining Engine:             ").append(engine));
+      System.out.print("Memory Budget:             ");
+      if (memoryBudget > 0 && apriori.getEngine() == MiningEngine.LEVEL_WISE) {
+        System.out.println(new StringBuilder().append(memoryBudget).append("MB"));
+      } else {
+        System.out.println("No");
+      }
+      if (numPartitions > 0) {
+        System.out.println(
+            new StringBuilder("Worker Partitions:         ").append(numPartitions));
+      }
+      if (checkpointDirectory != null) {
+        System.out.println(
+            new StringBuilder("Checkpoint Directory:      ").append(checkpointDirectory));
+      }
       System.out.println("--------------------");
       System.out.println();
       System.out.println("Process Running...");
-      apriori.run();
+      ItemsetMap highAUtilityItemsetsCount;
+      ItemsetMap preLargeUtilityItemsetsCount;
+      int numCandidates;
+      if (numPartitions > 0) {
+        PartitionMiner miner;
+        try {
+          miner =
+              new PartitionMiner(
+                  apriori,
+                  numPartitions,
+                  partitionDirectory != null
+                      ? Paths.get(partitionDirectory)
+                      : Files.createTempDirectory("apriori_haui"),
+                  workerOptions(
+                      Integer.max(1, threads / numPartitions),
+                      useLeadUpperbound,
+                      useProjection,
+                      engine,
+                      memoryBudget));
+          miner.mine(minSup, applyPreLarge ? preLargeThreshold : null);
+          // the files of a temporary work directory are not kept
+          if (partitionDirectory == null) {
+            miner.deleteWorkFiles();
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        highAUtilityItemsetsCount = miner.getHighAUtilityItemsetsCount();
+        preLargeUtilityItemsetsCount = miner.getPreLargeUtilityItemsetsCount();
+        numCandidates = miner.getNumCandidates();
+        if (resultSink != null) {
+          resultSink.writeAll(highAUtilityItemsetsCount, true);
+          resultSink.writeAll(preLargeUtilityItemsetsCount, false);
+          highAUtilityItemsetsCount = new ItemsetMap();
+          preLargeUtilityItemsetsCount = new ItemsetMap();
+        }
+      } else {
+        apriori.setResultSink(resultSink);
+        apriori.run();
+        highAUtilityItemsetsCount = apriori.getHighAUtilityItemsetsCount();
+        preLargeUtilityItemsetsCount = apriori.getPreLargeUtilityItemsetsCount();
+        numCandidates = apriori.getTotalCandidateCount();
+      }
       System.out.println("Process Finish...");
       long stopTime = System.currentTimeMillis();
       System.out.println("(Running Time Stop TimeStamp)");
-      Map<String, Double> highAUtilityItemsetsCount = apriori.getHighAUtilityItemsetsCount();
-      Map<String, Double> preLargeUtilityItemsetsCount = apriori.getPreLargeUtilityItemsetsCount();
       System.out.println();
       System.out.println("--------------------");
       System.out.println("Experimental Results");
       System.out.println("--------------------");
       System.out.println(
           new StringBuilder("Running Time: ").append(stopTime - startTime).append("ms"));
+      System.out.println(new StringBuilder("Number of Candidates: ").append(numCandidates));
       System.out.println(
-          new StringBuilder("Number of Candidates: ").append(apriori.getTotalCandidateCount()));
-      System.out.println(
-          new StringBuilder("Number of HAUIs: ").append(highAUtilityItemsetsCount.size()));
-      if (highAUtilityItemsetsCount.size() != 0) {
-        System.out.println("ITEMSET : AVERAGE UTILITY");
-        for (Map.Entry<String, Double> pair : highAUtilityItemsetsCount.entrySet()) {
+          new StringBuilder("The Maximum Memory Usage: ")
+              .append(apriori.getMaxMemory())
+              .append("MB"));
+      if (memoryBudget > 0 && apriori.getLevelMetrics().size() > 1) {
+        System.out.println(
+            new StringBuilder("Partitions per Level: ")
+                .append(
+                    apriori.getLevelMetrics().stream()
+                        .filter(metrics -> metrics.level > 1 && metrics.partitions > 0)
+                        .map(metrics -> String.valueOf(metrics.partitions))
+                        .collect(Collectors.joining(","))));
+      }
+      if (apriori.getResumedLevel() > 0) {
+        System.out.println(
+            new StringBuilder("Resumed after Level: ").append(apriori.getResumedLevel()));
+      }
+      if (topK > 0) {
+        System.out.println(
+            new StringBuilder("Final Minimal Utility Count: ").append(apriori.getMinSupCount()));
+      }
+      // the itemsets written to the file are not in the maps
+      long numHAUIs =
+          resultSink != null ? resultSink.getNumHigh() : highAUtilityItemsetsCount.size();
+      long numPreLarges =
+          resultSink != null ? resultSink.getNumPreLarge() : preLargeUtilityItemsetsCount.size();
+      System.out.println(new StringBuilder("Number of HAUIs: ").append(numHAUIs));
+      if (sweep != null) {
+        System.out.println("THRESHOLD : MINIMAL UTILITY COUNT : NUMBER OF HAUIS");
+        for (int i = 0; i < sweep.size(); ++i) {
           System.out.println(
-              new StringBuilder(pair.getKey()).append(" : ").append(pair.getValue()));
+              new StringBuilder()
+                  .append(sweep.minSup(i))
+                  .append(" : ")
+                  .append(sweep.minSupCount(i))
+                  .append(" : ")
+                  .append(sweep.numHAUIs(i)));
+        }
+      }
+      if (highAUtilityItemsetsCount.size() != 0) {
+        if (sweep != null) {
+          // the HAUIs of a threshold are the ones tagged with it or a higher one
+          System.out.println("ITEMSET : AVERAGE UTILITY : HIGHEST THRESHOLD");
+          printItemsets(highAUtilityItemsetsCount, sweep);
+        } else {
+          System.out.println("ITEMSET : AVERAGE UTILITY");
+          printItemsets(highAUtilityItemsetsCount);
         }
       }
 
       if (applyPreLarge) {
-        System.out.println(
-            new StringBuilder("Number of PreLarges: ").append(preLargeUtilityItemsetsCount.size()));
+        System.out.println(new StringBuilder("Number of PreLarges: ").append(numPreLarges));
         if (preLargeUtilityItemsetsCount.size() != 0) {
           System.out.println("ITEMSET : AVERAGE UTILITY");
-          for (Map.Entry<String, Double> pair : preLargeUtilityItemsetsCount.entrySet()) {
-            System.out.println(
-                new StringBuilder(pair.getKey()).append(" : ").append(pair.getValue()));
-          }
+          printItemsets(preLargeUtilityItemsetsCount);
         }
       }
 
+      if (resultSink != null) {
+        closeResults(resultSink, outputFile);
+      }
+      if (summaryFile != null) {
+        writeSummary(
+            summaryFile,
+            datasetFile,
+            apriori,
+            stopTime - startTime,
+            numCandidates,
+            numHAUIs,
+            numPreLarges);
+      }
+
       System.out.println("===========================================================");
-    } else if (fileArray.length > 1) {
+    } else if (windowSize > 0) {
+      System.out.println();
+      System.out.println("---------------------------------------------------");
+      System.out.println("Experimental Profile (Sliding Window experiment!!)");
+      System.out.println("---------------------------------------------------");
+      System.out.print("Use Lead Upperbound:       ");
+      if (apriori.getLeadUpperbound()) {
+        System.out.println("Yes");
+      } else {
+        System.out.println("No");
+      }
+      System.out.println(new StringBuilder("Mining Engine:             ").append(engine));
+      System.out.println(new StringBuilder("The Number of Datasets: ").append(fileArray.length));
+      System.out.println(new StringBuilder("Window Size (Datasets): ").append(windowSize));
+      // without a pre-large threshold the batches are mined at the minimal one
+      SlidingWindowMiner miner =
+          new SlidingWindowMiner(
+              apriori, minSup, applyPreLarge ? preLargeThreshold : minSup, windowSize);
+      System.out.println(new StringBuilder("Minimal Support: ").append(minSup));
+      if (applyPreLarge) {
+        System.out.println(new StringBuilder("Prelarge Threshold: ").append(preLargeThreshold));
+      }
+
+      System.out.println("(Running Time Start TimeStamp)");
+      long startTime = System.currentTimeMillis();
+      for (String db : fileArray) {
+        long startDBTime = System.currentTimeMillis();
+        System.out.println(new StringBuilder("Data Importing... (").append(db).append(")"));
+        int numExpired = miner.getNumExpired();
+        miner.addBatch(db);
+        if (miner.getNumExpired() > numExpired) {
+          System.out.println("Expire the Oldest Dataset...");
+        }
+        System.out.println(
+            new StringBuilder("Number of Transaction:     ").append(miner.getBatchTransactions()));
+        System.out.println(
+            new StringBuilder("Total Utility:             ").append(miner.getBatchUtility()));
+        System.out.println(
+            new StringBuilder("Window Utility:            ").append(miner.getTotalUtility()));
+        System.out.println("Process Finish...");
+        System.out.println(new StringBuilder("Number of Rescan: ").append(miner.getNumReScan()));
+        System.out.println(
+            new StringBuilder("Number of Candidates: ").append(miner.getBatchCandidates()));
+        System.out.println(
+            new StringBuilder("Number of Kept Itemsets: ").append(miner.getNumKept()));
+        System.out.println(
+            new StringBuilder("Number of HAUIs in Window: ").append(miner.currentHAUIs().size()));
+        long stopDBTime = System.currentTimeMillis();
+        System.out.println(
+            new StringBuilder("DB Running Time: ").append(stopDBTime - startDBTime).append("ms"));
+        System.out.println();
+      }
+      ItemsetMap highAUtilityItemsetsCount = miner.currentHAUIs();
+      ItemsetMap preLargeUtilityItemsetsCount = miner.currentPreLarge();
+      long stopTime = System.currentTimeMillis();
+      System.out.println("--------------------");
+      System.out.println("Experimental Results");
+      System.out.println("--------------------");
+      System.out.println(
+          new StringBuilder("Total Utility:             ").append(miner.getTotalUtility()));
+      System.out.println(new StringBuilder("Minimal Utility Threshold: ").append(minSup));
+      System.out.println(
+          new StringBuilder("Minimal Utility Count:     ").append(miner.getMinSupCount()));
+      System.out.println(new StringBuilder("Number of Rescan: ").append(miner.getCountReScan()));
+      System.out.println(
+          new StringBuilder("Number of HAUIs: ").append(highAUtilityItemsetsCount.size()));
+      System.out.println(
+          new StringBuilder("Running Time: ").append(stopTime - startTime).append("ms"));
+      System.out.println(
+          new StringBuilder("The Maximum Memory Usage: ")
+              .append(apriori.getMaxMemory())
+              .append("MB"));
+      if (resultSink != null) {
+        resultSink.writeAll(highAUtilityItemsetsCount, true);
+        if (applyPreLarge) {
+          resultSink.writeAll(preLargeUtilityItemsetsCount, false);
+        }
+      } else if (highAUtilityItemsetsCount.size() != 0) {
+        System.out.println("ITEMSET : AVERAGE UTILITY");
+        printItemsets(highAUtilityItemsetsCount);
+      }
+      if (applyPreLarge) {
+        System.out.println(
+            new StringBuilder("Number of PreLarges: ").append(preLargeUtilityItemsetsCount.size()));
+        if (resultSink == null && preLargeUtilityItemsetsCount.size() != 0) {
+          System.out.println("ITEMSET : AVERAGE UTILITY");
+          printItemsets(preLargeUtilityItemsetsCount);
+        }
+      }
+      if (resultSink != null) {
+        closeResults(resultSink, outputFile);
+      }
+    } else if (fileArray.length > 1 || stateFile != null) {
       if (!applyPreLarge) {
         System.out.println("Need to Setup PreLarge Threshold!!");
         exit(1);
@@ -200,12 +649,9 @@ public final class App {
       } else {
         System.out.println("No");
       }
+      System.out.println(new StringBuilder("Mining Engine:             ").append(engine));
       System.out.println(new StringBuilder("The Number of Datasets: ").append(fileArray.length));
-      int reScanRemainingUtility = 0;
-      List<String> reScanDBList = new ArrayList<>();
-      Map<String, Double> highAUtilityItemsetsCount = null;
-      Map<String, Double> preLargeUtilityItemsetsCount = null;
-      int countReScan = 0;
+      IncrementalMiner miner = new IncrementalMiner(apriori, minSup, preLargeThreshold);
       int countDB = 0;
       for (String db : fileArray) {
         ++countDB;
@@ -213,141 +659,47 @@ public final class App {
       }
       System.out.println(new StringBuilder("Minimal Support: ").append(minSup));
       System.out.println(new StringBuilder("Prelarge Threshold: ").append(preLargeThreshold));
+      StateStore store = null;
+      if (stateFile != null) {
+        try {
+          store = new StateStore(Paths.get(stateFile));
+          miner.setStateStore(store);
+        } catch (IOException e) {
+          System.out.println(new StringBuilder("Cannot Open the State File: ").append(stateFile));
+          System.out.println("===========================================================");
+          exit(1);
+        } catch (IllegalStateException e) {
+          System.out.println(e.getMessage());
+          System.out.println("===========================================================");
+          exit(1);
+        }
+        System.out.println(new StringBuilder("State File: ").append(stateFile));
+        System.out.println(new StringBuilder("Batches in State: ").append(miner.getNumBatches()));
+      }
 
       System.out.println("(Running Time Start TimeStamp)");
       long startTime = System.currentTimeMillis();
-      totalUtility = 0;
-      long iTotalUtility;
       for (String db : fileArray) {
         long startDBTime = System.currentTimeMillis();
-        reScanDBList.add(db);
         System.out.println(new StringBuilder("Data Importing... (").append(db).append(")"));
-        apriori.readFile(db);
-        apriori.setMinSup(minSup);
-        apriori.setPreLargeThreshold(preLargeThreshold);
-        numTransaction = apriori.getNumTransactions();
-        iTotalUtility = apriori.getTotalUtility();
-        totalUtility += iTotalUtility;
-        minSupCount = totalUtility * minSup;
-        preLargeCount = totalUtility * preLargeThreshold;
-        System.out.println(new StringBuilder("Number of Transaction:     ").append(numTransaction));
-        System.out.println(new StringBuilder("Total Utility:             ").append(iTotalUtility));
-
-        if (iTotalUtility >= reScanRemainingUtility) {
-          if (reScanDBList.size() == 1) {
-            System.out.println("Process Running...");
-            apriori.run();
-            System.out.println("Process Finish...");
-            System.out.println();
-          } else {
+        miner.addBatch(db);
+        System.out.println(
+            new StringBuilder("Number of Transaction:     ").append(miner.getBatchTransactions()));
+        System.out.println(
+            new StringBuilder("Total Utility:             ").append(miner.getBatchUtility()));
+        System.out.println(
+            new StringBuilder("Bytes per Item:            ")
+                .append(String.format("%.2f", apriori.getBytesPerItem())));
+
+        if (miner.wasReMined()) {
+          if (miner.getNumBatches() > 1) {
             System.out.println("Re-Scan...");
-            System.out.println("Merged Data Importing...");
-            apriori.readFile(reScanDBList);
-            apriori.setMinSup(minSup);
-            apriori.setPreLargeThreshold(preLargeThreshold);
-            totalUtility = apriori.getTotalUtility();
-            System.out.println("Process Running...");
-            apriori.run();
-            System.out.println("Process Finish...");
           }
-          reScanRemainingUtility =
-              (int) Math.ceil(((minSup - preLargeThreshold) * totalUtility) / minSup);
-          highAUtilityItemsetsCount = apriori.getHighAUtilityItemsetsCount();
-          preLargeUtilityItemsetsCount = apriori.getPreLargeUtilityItemsetsCount();
+          System.out.println("Process Finish...");
         } else {
           System.out.println("Do Incremental Process...");
-          System.out.println("Process Running...");
-          apriori.run();
           System.out.println("Process Finish...");
-
-          // update large itemsets and prelarge
-          Map<String, Double> tempHigh = apriori.getHighAUtilityItemsetsCount();
-          Map<String, Double> tempPreLarge = apriori.getPreLargeUtilityItemsetsCount();
-          List<Pair<String, Double>> tempToPreLarge = new ArrayList<>();
-          List<Pair<String, MutableDouble>> tempHToReScan = new ArrayList<>();
-          List<Pair<String, MutableDouble>> tempPToReScan = new ArrayList<>();
-          List<String> removeKeyList = new ArrayList<>();
-          int numReScan = 0;
-
-          for (Map.Entry<String, Double> entry : highAUtilityItemsetsCount.entrySet()) {
-            String key = entry.getKey();
-            Double originalValue = entry.getValue();
-            Double value = tempHigh.get(key);
-
-            if (value != null) {
-              highAUtilityItemsetsCount.replace(key, originalValue + value);
-            } else {
-              value = tempPreLarge.get(key);
-
-              if (value != null) {
-                value += originalValue;
-
-                if (value >= minSupCount) {
-                  highAUtilityItemsetsCount.replace(key, value);
-                } else {
-                  removeKeyList.add(key);
-                  tempToPreLarge.add(new Pair<>(key, value));
-                }
-              } else {
-                tempHToReScan.add(new Pair<>(key, new MutableDouble(originalValue)));
-              }
-            }
-          }
-          for (String removeKey : removeKeyList) highAUtilityItemsetsCount.remove(removeKey);
-
-          removeKeyList.clear();
-
-          for (Map.Entry<String, Double> entry : preLargeUtilityItemsetsCount.entrySet()) {
-            String key = entry.getKey();
-            Double originalValue = entry.getValue();
-            Double value = tempHigh.get(key);
-
-            if (value != null) {
-              value += originalValue;
-              if (value >= minSupCount) {
-                removeKeyList.add(key);
-                highAUtilityItemsetsCount.put(key, value);
-              } else preLargeUtilityItemsetsCount.replace(key, value);
-            } else {
-              value = tempPreLarge.get(key);
-              if (value != null) preLargeUtilityItemsetsCount.replace(key, originalValue + value);
-              else tempPToReScan.add(new Pair<>(key, new MutableDouble(originalValue)));
-            }
-          }
-
-          for (String removeKey : removeKeyList) preLargeUtilityItemsetsCount.remove(removeKey);
-
-          for (Pair<String, Double> entry : tempToPreLarge)
-            preLargeUtilityItemsetsCount.put(entry.first, entry.second);
-
-          apriori.reScan(tempHToReScan, tempPToReScan);
-
-          for (Pair<String, MutableDouble> entry : tempHToReScan) {
-            String key = entry.first;
-            double value = entry.second.getValue();
-
-            if (value < minSupCount) {
-              highAUtilityItemsetsCount.remove(key);
-              if (value >= preLargeCount) {
-                preLargeUtilityItemsetsCount.put(key, value);
-              }
-            } else highAUtilityItemsetsCount.replace(key, value);
-          }
-
-          for (Pair<String, MutableDouble> entry : tempPToReScan) {
-            String key = entry.first;
-            double value = entry.second.getValue();
-
-            if (value < preLargeCount) preLargeUtilityItemsetsCount.remove(key);
-            else preLargeUtilityItemsetsCount.replace(key, value);
-          }
-
-          numReScan += tempHToReScan.size();
-          numReScan += tempPToReScan.size();
-          countReScan += numReScan;
-
-          reScanRemainingUtility -= iTotalUtility;
-          System.out.println(new StringBuilder("Number of Rescan: ").append(numReScan));
+          System.out.println(new StringBuilder("Number of Rescan: ").append(miner.getNumReScan()));
         }
         long stopDBTime = System.currentTimeMillis();
         System.out.println(
@@ -356,6 +708,10 @@ public final class App {
             new StringBuilder("DB Running Time: ").append(stopDBTime - startDBTime).append("ms"));
         System.out.println();
       }
+      totalUtility = miner.getTotalUtility();
+      minSupCount = miner.getMinSupCount();
+      int countReScan = miner.getCountReScan();
+      ItemsetMap highAUtilityItemsetsCount = miner.currentHAUIs();
       long stopTime = System.currentTimeMillis();
       System.out.println("--------------------");
       System.out.println("Experimental Results");
@@ -364,6 +720,14 @@ public final class App {
       System.out.println(new StringBuilder("Minimal Utility Threshold: ").append(minSup));
       System.out.println(new StringBuilder("Minimal Utility Count:     ").append(minSupCount));
       System.out.println(new StringBuilder("Number of Rescan: ").append(countReScan));
+      if (store != null) {
+        System.out.println(new StringBuilder("Batches in State: ").append(miner.getNumBatches()));
+        try {
+          store.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
       System.out.println(
           new StringBuilder("Number of HAUIs: ").append(highAUtilityItemsetsCount.size()));
       System.out.println(
@@ -372,13 +736,175 @@ public final class App {
           new StringBuilder("The Maximum Memory Usage: ")
               .append(apriori.getMaxMemory())
               .append("MB"));
-      if (highAUtilityItemsetsCount.size() != 0) {
+      if (resultSink != null) {
+        resultSink.writeAll(highAUtilityItemsetsCount, true);
+        closeResults(resultSink, outputFile);
+      } else if (highAUtilityItemsetsCount.size() != 0) {
         System.out.println("ITEMSET : AVERAGE UTILITY");
-        for (Map.Entry<String, Double> pair : highAUtilityItemsetsCount.entrySet()) {
-          System.out.println(
-              new StringBuilder(pair.getKey()).append(" : ").append(pair.getValue()));
-        }
+        printItemsets(highAUtilityItemsetsCount);
       }
     }
   }
+
+  // the options of App a partition worker needs besides its files and thresholds
+  private static List<String> workerOptions(
+      int threads,
+      boolean useLeadUpperbound,
+      boolean useProjection,
+      MiningEngine engine,
+      double memoryBudget) {
+    List<String> options = new ArrayList<>(Arrays.asList("-t", String.valueOf(threads)));
+    options.add("-e");
+    options.add(engine.toString());
+    if (!useLeadUpperbound) {
+      options.add("-nlu");
+    }
+    if (useProjection) {
+      options.add("-pj");
+    }
+    if (memoryBudget > 0) {
+      options.add("-b");
+      options.add(String.valueOf(memoryBudget));
+    }
+    return options;
+  }
+
+  // the thresholds of -m, which can be a comma separated list
+  private static double[] parseThresholds(String value) {
+    return Arrays.stream(value.split(",")).mapToDouble(Double::parseDouble).toArray();
+  }
+
+  private static void closeResults(ResultSink resultSink, String outputFile) {
+    try {
+      resultSink.close();
+      System.out.println(
+          new StringBuilder("Itemsets Written to: ")
+              .append(outputFile)
+              .append(" (")
+              .append(resultSink.getFormat())
+              .append(")"));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  // writes the settings, the results and the metrics of every level of a run as one JSON object
+  private static void writeSummary(
+      String summaryFile,
+      String datasetFile,
+      Apriori apriori,
+      long runningTime,
+      int numCandidates,
+      long numHAUIs,
+      long numPreLarges) {
+    StringBuilder json =
+        new StringBuilder("{\"dataset\":\"")
+            .append(datasetFile.replace("\\", "\\\\").replace("\"", "\\\""))
+            .append("\",\"engine\":\"")
+            .append(apriori.getEngine())
+            .append("\",\"threads\":")
+            .append(apriori.getThreads())
+            .append(",\"streaming\":")
+            .append(apriori.getStreaming())
+            .append(",\"topK\":")
+            .append(apriori.getTopK())
+            .append(",\"numTransactions\":")
+            .append(apriori.getNumTransactions())
+            .append(",\"totalUtility\":")
+            .append(apriori.getTotalUtility())
+            .append(",\"minSupCount\":")
+            .append(apriori.getMinSupCount())
+            .append(",\"runningTimeMs\":")
+            .append(runningTime)
+            .append(",\"candidates\":")
+            .append(numCandidates)
+            .append(",\"maxMemoryMB\":")
+            .append(apriori.getMaxMemory())
+            .append(",\"hauis\":")
+            .append(numHAUIs)
+            .append(",\"preLarges\":")
+            .append(numPreLarges)
+            .append(",\"sweep\":[");
+    ThresholdSweep sweep = apriori.getThresholdSweep();
+    for (int i = 0; sweep != null && i < sweep.size(); ++i) {
+      json.append(i > 0 ? ",{\"minSup\":" : "{\"minSup\":")
+          .append(sweep.minSup(i))
+          .append(",\"minSupCount\":")
+          .append(sweep.minSupCount(i))
+          .append(",\"hauis\":")
+          .append(sweep.numHAUIs(i))
+          .append('}');
+    }
+    json.append("],\"levels\":[");
+    for (LevelMetrics metrics : apriori.getLevelMetrics()) {
+      if (metrics.level > 1) {
+        json.append(',');
+      }
+      json.append(metrics.toJson());
+    }
+    json.append("]}\n");
+    try {
+      Files.write(Paths.get(summaryFile), json.toString().getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  // prints through one buffer instead of locking System.out for every itemset
+  private static void printItemsets(ItemsetMap itemsets) {
+    PrintWriter out =
+        new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16), false);
+    for (int e = itemsets.first(); e >= 0; e = itemsets.next(e)) {
+      out.append(itemsets.keyString(e)).append(" : ").println(itemsets.value(e));
+    }
+    out.flush();
+  }
+
+  // every itemset with the highest threshold of the sweep it reaches
+  private static void printItemsets(ItemsetMap itemsets, ThresholdSweep sweep) {
+    PrintWriter out =
+        new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16), false);
+    for (int e = itemsets.first(); e >= 0; e = itemsets.next(e)) {
+      double aUtility = itemsets.value(e);
+      out.append(itemsets.keyString(e))
+          .append(" : ")
+          .append(String.valueOf(aUtility))
+          .append(" : ")
+          .println(sweep.minSup(sweep.highest(aUtility)));
+    }
+    out.flush();
+  }
+
+  // convert <input> <output>: writes a text data set in the binary format read by Apriori
+  private static void convert(String[] args) {
+    if (args.length != 3) {
+      System.out.println("Usage: java -jar AprioriHaui.jar convert <input> <output>");
+      exit(1);
+    }
+
+    try {
+      long startTime = System.currentTimeMillis();
+      Path input = Paths.get(args[1]);
+      Path output = Paths.get(args[2]);
+      TransactionDatabase database = MappedDatasetReader.read(input, ForkJoinPool.commonPool());
+      BinaryDataset.write(database, output);
+      long stopTime = System.currentTimeMillis();
+      System.out.println(new StringBuilder("Number of Transaction:     ").append(database.size()));
+      System.out.println(
+          new StringBuilder("Maximal ID:                ").append(database.getMaxItemID()));
+      System.out.println(
+          new StringBuilder("Total Utility:             ").append(database.getTotalUtility()));
+      System.out.println(
+          new StringBuilder("Text Size:                 ").append(Files.size(input)).append("B"));
+      System.out.println(
+          new StringBuilder("Binary Size:               ")
+              .append(Files.size(output))
+              .append("B"));
+      System.out.println(
+          new StringBuilder("Running Time: ").append(stopTime - startTime).append("ms"));
+    } catch (IOException e) {
+      e.printStackTrace();
+      exit(1);
+    }
+  }
 }
@@ -1,21 +1,25 @@
 package tw.idv.wmt35.apriori_haui;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Map;
-import java.util.Set;
-import tw.idv.wmt35.MutableDouble;
-import tw.idv.wmt35.Pair;
-import tw.idv.wmt35.Quaternionic;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * It is an implementation of effective apriori algorithm to find the high average utility itemsets
@@ -25,50 +29,98 @@ import tw.idv.wmt35.Quaternionic;
  */
 final class Apriori {
   static final boolean DEFAULT_LEAD_UPPERBOUND = true;
+  // off until it is measured to pay off, on dense data sets few transactions merge
+  static final boolean DEFAULT_PROJECTION = false;
+  static final MiningEngine DEFAULT_ENGINE = MiningEngine.LEVEL_WISE;
+  // the related transactions of a level are counted in at most MAX_SCAN_CHUNKS chunks of at
+  // least MIN_SCAN_CHUNK transactions, the split does not depend on the number of threads
+  private static final int MAX_SCAN_CHUNKS = 64;
+  private static final int MIN_SCAN_CHUNK = 1024;
+  // the estimated bytes of a Candidate with its places in the lists, of the trie nodes of a
+  // candidate, and of a partial count of a candidate, used to split a level to a memory budget
+  private static final long CANDIDATE_BYTES = 56;
+  private static final long TRIE_BYTES = 52;
+  private static final long COUNT_BYTES = 20;
 
   private long totalUtility;
-  private List<Record> data;
-  private final List<Integer> relatedTransactions;
+  // the loaded data set
+  private TransactionDatabase data;
+  // the database the levels are counted in: data, its projection or the block being streamed
+  private TransactionDatabase working;
+  private int numTransactions;
+  private boolean streaming;
+  private StreamingDataset source;
+  // transactions of the streamed data set which still match some candidate
+  private TransactionBitmap survivors;
+  // IDs of the transactions which still match some candidate, the first numRelated are valid
+  private int[] relatedTransactions;
+  private int numRelated;
   private double minSup;
   private Double minSupCount;
   private double preLargeThreshold;
   private Double preLargeCount;
   private Double thresholdCount;
-  private Map<String, Double> highAUtilityItemsetsCount;
-  private Map<String, Double> preLargeUtilityItemsetsCount;
+  private ItemsetMap highAUtilityItemsetsCount;
+  private ItemsetMap preLargeUtilityItemsetsCount;
   private ArrayList<int[]> highMUtilityItemsets;
   private int maxItemID;
   private int maxKey;
   private double maxMemory;
   private int totalCandidateCount;
-  private Set<Integer> reserved;
+  // the items of the itemsets combined into the next candidates
+  private BitSet reserved;
   private ArrayList<int[]> combinedItemsets;
   private boolean leadUpperbound;
-
-  private static final class Record {
-    // first: name, second:  item utility
-    final List<Pair<Integer, Integer>> items;
-    int tranUtility;
-    int maxUtility;
-
-    Record() {
-      items = new ArrayList<>();
-    }
-  }
+  private boolean projection;
+  private MiningEngine engine;
+  private ForkJoinPool pool;
+  // the bytes the candidates of a level may take, 0 if they are not limited
+  private long memoryBudget;
+  // the metrics of every level of the last run, and of the level being mined
+  private List<LevelMetrics> levelMetrics = new ArrayList<>();
+  private LevelMetrics currentLevel;
+  // the number of itemsets of the top-k mode, 0 if the threshold is given
+  private int topK;
+  private TopKItemsets topItemsets;
+  // where the itemsets are written as they are found, null to keep them in the maps
+  private ResultSink resultSink;
+  // the thresholds above minSup whose itemsets are counted in the same run, or null
+  private ThresholdSweep sweep;
+  // the checkpoints are written into it after every level, and a run resumes from the last one
+  private Path checkpointDirectory;
+  private ExecutorService checkpointWriter;
+  private Future<?> pendingCheckpoint;
+  private int resumedLevel;
 
   Apriori() {
-    relatedTransactions = new LinkedList<>();
+    relatedTransactions = new int[0];
     maxMemory = 0;
     checkMemory();
     leadUpperbound = DEFAULT_LEAD_UPPERBOUND;
+    projection = DEFAULT_PROJECTION;
+    engine = DEFAULT_ENGINE;
+    pool = ForkJoinPool.commonPool();
   }
 
-  private void checkMemory() {
+  // the peak heap in use since the last check in MB, from the peaks the heap pools record between
+  // the checks, so the peaks within a level are not missed
+  private double checkMemory() {
+    long peak = 0;
+    for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (memoryPool.getType() == MemoryType.HEAP && memoryPool.isValid()) {
+        peak += memoryPool.getPeakUsage().getUsed();
+        memoryPool.resetPeakUsage();
+      }
+    }
     double currentMemory =
-        (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024d / 1024d;
+        Double.max(
+                peak, Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory())
+            / 1024d
+            / 1024d;
     if (currentMemory > maxMemory) {
       maxMemory = currentMemory;
     }
+    return currentMemory;
   }
 
   public double getMaxMemory() {
@@ -87,46 +139,159 @@ final class Apriori {
     this.leadUpperbound = leadUpperbound;
   }
 
+  public boolean getProjection() {
+    return projection;
+  }
+
+  /**
+   * With projection the related transactions are cut down to the reserved items after every level,
+   * and transactions which become identical are merged into one record. It is not applied in
+   * streaming mode.
+   */
+  public void setProjection(final boolean projection) {
+    this.projection = projection;
+  }
+
+  public MiningEngine getEngine() {
+    return engine;
+  }
+
+  /**
+   * The vertical engine mines utility lists instead of scanning the transactions at every level,
+   * and the depth-first engine keeps the projected transactions of one branch of the search
+   * instead of whole levels. Both need the data set in memory, so they cannot be used in streaming
+   * mode. Neither checks the subsets of a candidate, so they can find pre-large itemsets which the
+   * levels miss.
+   */
+  public void setEngine(final MiningEngine engine) {
+    this.engine = engine;
+  }
+
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * When the estimated size of the candidates of a level exceeds the memory budget, in bytes, they
+   * are joined and counted in partitions, each with its own pass over the related transactions. 0
+   * means no budget. It is applied by the levelwise engine only.
+   */
+  public void setMemoryBudget(final long memoryBudget) {
+    this.memoryBudget = memoryBudget;
+  }
+
+  /** The metrics of every level of the last run of the levelwise engine. */
+  public List<LevelMetrics> getLevelMetrics() {
+    return levelMetrics;
+  }
+
+  public int getTopK() {
+    return topK;
+  }
+
+  /**
+   * In top-k mode the k itemsets with the highest average utility are mined instead of the ones
+   * above minSup. The threshold starts from the smallest positive utility and rises to the k-th
+   * highest average utility found so far, which tightens the pruning of the later levels; it can be
+   * read from getMinSupCount after run. The itemsets are given from the highest down. 0 turns it
+   * off. It is applied by the levelwise engine only, and no pre-large itemsets are kept in it.
+   */
+  public void setTopK(final int topK) {
+    this.topK = topK;
+  }
+
+  /** The loaded data set, null in streaming mode. */
+  TransactionDatabase getDatabase() {
+    return data;
+  }
+
+  public ResultSink getResultSink() {
+    return resultSink;
+  }
+
+  /**
+   * With a result sink the high and the pre-large itemsets are written to it as they are found
+   * instead of being kept in the maps, which are left empty, and the sink is flushed after every
+   * level. The engines which do not mine level by level, and the top-k mode, write their itemsets
+   * at the end of the run.
+   */
+  public void setResultSink(final ResultSink resultSink) {
+    this.resultSink = resultSink;
+  }
+
+  public ThresholdSweep getThresholdSweep() {
+    return sweep;
+  }
+
+  /**
+   * With a threshold sweep the high itemsets of a run are counted at every threshold of the sweep
+   * too. minSup has to be set to the lowest of them.
+   */
+  public void setThresholdSweep(final ThresholdSweep sweep) {
+    this.sweep = sweep;
+  }
+
+  public Path getCheckpointDirectory() {
+    return checkpointDirectory;
+  }
+
+  /**
+   * With a checkpoint directory the state of the levelwise engine is written into it after every
+   * level, by a thread of its own while the next level is mined, and a run of the same data set at
+   * the same thresholds resumes after the last level written. The checkpoint is deleted once the
+   * run is complete. It cannot be used with the top-k mode, a threshold sweep or a result sink,
+   * whose itemsets are not kept in the maps. null turns it off.
+   */
+  public void setCheckpointDirectory(final Path checkpointDirectory) {
+    this.checkpointDirectory = checkpointDirectory;
+  }
+
+  /** The level the last run resumed after, 0 if it started from the first level. */
+  public int getResumedLevel() {
+    return resumedLevel;
+  }
+
+  public int getThreads() {
+    return pool.getParallelism();
+  }
+
+  public void setThreads(final int threads) {
+    if (pool != ForkJoinPool.commonPool()) {
+      pool.shutdown();
+    }
+    pool = new ForkJoinPool(Integer.max(threads, 1));
+  }
+
+  public boolean getStreaming() {
+    return streaming;
+  }
+
+  /**
+   * In streaming mode readFile only opens the data set, and every level streams it from disk one
+   * block at a time. It has to be set before readFile.
+   */
+  public void setStreaming(final boolean streaming) {
+    this.streaming = streaming;
+  }
+
   public void readFile(String inputFileName) {
 
     // clear data set
     maxItemID = 0;
     totalUtility = 0;
-    relatedTransactions.clear();
     totalCandidateCount = 0;
-    data = new ArrayList<>();
+    if (streaming) {
+      openStream(Collections.singletonList(inputFileName));
+      return;
+    }
+    data = new TransactionDatabase();
 
     try {
-      BufferedReader read =
-          new BufferedReader(new InputStreamReader(new FileInputStream(inputFileName)));
-      // each line is a transaction
-      String line;
-      while ((line = read.readLine()) != null) {
-        Record aRecord = new Record();
-        String[] split = line.split(":");
-        // items : tranUtility : utilityValues
-        String[] items = split[0].split(" ");
-        String[] utilityValues = split[2].split(" ");
-        aRecord.tranUtility = Integer.parseInt(split[1]);
-        for (int i = 0; i < items.length; ++i) {
-          int name = Integer.parseInt(items[i]);
-          int utility = Integer.parseInt(utilityValues[i]);
-          maxItemID = Integer.max(maxItemID, name);
-          aRecord.maxUtility = Integer.max(aRecord.maxUtility, utility);
-          Pair<Integer, Integer> entry = new Pair<>(name, utility);
-          aRecord.items.add(entry);
-        }
-        totalUtility += aRecord.tranUtility;
-        // initial relatedTransactions, data.size() is the ID for aRecord
-        relatedTransactions.add(data.size());
-        data.add(aRecord);
-      }
-      // maxKey is the maximal key for the recent level, maxItemID is for global
-      maxKey = maxItemID;
-      read.close();
+      data = load(inputFileName);
     } catch (IOException e) {
       e.printStackTrace();
     }
+    loaded();
   }
 
   public void readFile(List<String> inputFileArray) {
@@ -134,37 +299,101 @@ final class Apriori {
     // clear data set
     maxItemID = 0;
     totalUtility = 0;
-    relatedTransactions.clear();
-    data = new ArrayList<>();
+    if (streaming) {
+      openStream(inputFileArray);
+      return;
+    }
+    data = new TransactionDatabase();
 
     try {
       for (String file : inputFileArray) {
-        BufferedReader read = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-        String line;
-        while ((line = read.readLine()) != null) {
-          Record aRecord = new Record();
-          String[] split = line.split(":");
-          String[] items = split[0].split(" ");
-          String[] utilityValue = split[2].split(" ");
-          aRecord.tranUtility = Integer.parseInt(split[1]);
-          for (int i = 0; i < items.length; ++i) {
-            int name = Integer.parseInt(items[i]);
-            int utility = Integer.parseInt(utilityValue[i]);
-            maxItemID = Integer.max(maxItemID, name);
-            aRecord.maxUtility = Integer.max(aRecord.maxUtility, utility);
-            Pair<Integer, Integer> entry = new Pair<>(name, utility);
-            aRecord.items.add(entry);
-          }
-          totalUtility += aRecord.tranUtility;
-          relatedTransactions.add(data.size());
-          data.add(aRecord);
-        }
-        read.close();
+        data.addAll(load(file));
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    loaded();
+  }
+
+  /** Mines a database which is already in memory, like readFile does with a loaded file. */
+  void setDatabase(TransactionDatabase database) {
+    maxItemID = 0;
+    totalUtility = 0;
+    totalCandidateCount = 0;
+    data = database;
+    loaded();
+  }
+
+  // a binary data set written by the convert command is recognized by its header
+  TransactionDatabase load(String inputFileName) throws IOException {
+    Path path = Paths.get(inputFileName);
+    if (BinaryDataset.isBinary(path)) {
+      return BinaryDataset.read(path, pool);
+    }
+    return MappedDatasetReader.read(path, pool);
+  }
+
+  private void loaded() {
+    closeStream();
+    data.trimToSize();
+    working = data;
+    numTransactions = data.size();
+    maxItemID = data.getMaxItemID();
+    totalUtility = data.getTotalUtility();
+    // initial relatedTransactions, the position of a transaction is its ID
+    numRelated = data.size();
+    relatedTransactions = new int[numRelated];
+    for (int i = 0; i < numRelated; ++i) relatedTransactions[i] = i;
+    // maxKey is the maximal key for the recent level, maxItemID is for global
+    maxKey = maxItemID;
+  }
+
+  private void openStream(List<String> inputFileArray) {
+    closeStream();
+    data = null;
+    working = null;
+    numTransactions = 0;
+    relatedTransactions = new int[0];
+    numRelated = 0;
+
+    try {
+      source = new StreamingDataset(inputFileArray, pool);
+      survivors = new TransactionBitmap(source.size());
+      survivors.setAll();
+      numTransactions = source.size();
+      maxItemID = source.getMaxItemID();
+      totalUtility = source.getTotalUtility();
+    } catch (IOException e) {
+      e.printStackTrace();
+      closeStream();
+    }
+    maxKey = maxItemID;
+  }
+
+  private void closeStream() {
+    try {
+      if (source != null) {
+        source.close();
+      }
+      if (survivors != null) {
+        survivors.close();
       }
-      maxKey = maxItemID;
     } catch (IOException e) {
       e.printStackTrace();
     }
+    source = null;
+    survivors = null;
+  }
+
+  /**
+   * The average number of bytes used to store one item of the loaded data set, or of the files on
+   * disk in streaming mode.
+   */
+  public double getBytesPerItem() {
+    if (source != null) {
+      return source.bytesPerItem();
+    }
+    return data == null ? 0.0 : data.bytesPerItem();
   }
 
   public double getMinSupCount() {
@@ -180,7 +409,7 @@ final class Apriori {
   }
 
   public long getNumTransactions() {
-    return data.size();
+    return numTransactions;
   }
 
   public int getMaxItemID() {
@@ -202,515 +431,1007 @@ final class Apriori {
     thresholdCount = preLargeCount;
   }
 
-  private Pair<Integer, int[]> mergeItemsets(int[] one, int[] two) {
-    int i = 0, j = 0, k = 0, d = 0;
-    int length = one.length;
-    int[] newItemset = new int[length + 1];
-    int tempIndex = -1;
-
-    while (i < length) {
-      if (one[i] == two[j]) {
-        newItemset[k] = one[i];
-        ++i;
-        ++j;
-      } else if (one[i] < two[j]) {
-
-        ++d;
-        if (d < 2) {
-          newItemset[k] = one[i];
-          tempIndex = i;
-          ++i;
-        } else {
-          newItemset[0] = tempIndex;
-          return new Pair<>(tempIndex, newItemset);
-        }
-      } else {
-        newItemset[0] = tempIndex;
-        return new Pair<>(tempIndex, newItemset);
-      }
-      ++k;
-    }
-
-    newItemset[k] = two[j];
-    return new Pair<>(tempIndex, newItemset);
+  /**
+   * Joins every lead itemset X of the last level with the combined itemsets of its equivalence
+   * class, the ones which share all items of X but the last one and end with a larger item c. X
+   * with c is a candidate when all its other subsets of the length of X are combined too, which is
+   * looked up in a hash index of the combined itemsets, so the work grows with the number of
+   * candidates and not with the number of items. The candidates are in the lexicographic order,
+   * as the combined itemsets are.
+   */
+  List<int[]> joinCandidates() {
+    List<int[]> candidates = new ArrayList<>();
+    new CandidateJoin().join(0, Long.MAX_VALUE, candidates);
+    return candidates;
   }
 
-  // find the order in previous level HAUIs
-  private int itemsetCompare(int[] one, int[] two) {
-
-    for (int i = 0; i < one.length; ++i) {
-      if (one[i] < two[i]) {
-        return -1;
-      } else if (one[i] > two[i]) {
-        return 1;
+  // the join of the leads of the last level, which can be done a part of the leads at a time
+  private final class CandidateJoin {
+    private final ItemsetMap index = new ItemsetMap();
+    // the end of the equivalence class of every combined itemset
+    private final int[] classEnd;
+    private final int[] subset;
+    private final int length;
+    // the candidates of the parts joined before
+    private int numJoined;
+
+    CandidateJoin() {
+      int numCombined = combinedItemsets.size();
+      length = combinedItemsets.get(0).length;
+      for (int i = 0; i < numCombined; ++i) index.put(combinedItemsets.get(i), i);
+
+      classEnd = new int[numCombined];
+      for (int i = numCombined - 1; i >= 0; --i) {
+        boolean samePrefix =
+            i + 1 < numCombined
+                && Arrays.equals(
+                    combinedItemsets.get(i), 0, length - 1,
+                    combinedItemsets.get(i + 1), 0, length - 1);
+        classEnd[i] = samePrefix ? classEnd[i + 1] : i + 1;
       }
+      subset = new int[length];
     }
 
-    return 0;
-  }
-
-  private int findPosition(int[] target, int start) {
-    // check start
-    if (start >= combinedItemsets.size()) {
-      return -1;
-    }
-    if (itemsetCompare(target, combinedItemsets.get(start)) == 0) {
-      return start;
-    }
-
-    int end = combinedItemsets.size() - 1;
-    if (start > end) {
-      return -1;
-    }
-
-    int middle = (start + end) / 2;
-    boolean find = false;
-
-    while (!find) {
-      int result = itemsetCompare(target, combinedItemsets.get(middle));
-
-      if (result < 0) {
-        end = middle - 1;
-      } else if (result > 0) {
-        start = middle + 1;
-      } else {
-        if (middle != start) {
-          int result2 = itemsetCompare(target, combinedItemsets.get(middle - 1));
-
-          if (result2 == 0) {
-            end = middle - 1;
-          } else {
-            find = true;
+    /**
+     * Adds the candidates of the leads from the given one on to candidates, and stops after the
+     * lead with which they reach maxCandidates. It gives the lead to go on with.
+     */
+    int join(int from, long maxCandidates, List<int[]> candidates) {
+      int lead = from;
+      while (lead < highMUtilityItemsets.size() && candidates.size() < maxCandidates) {
+        int[] itemset = highMUtilityItemsets.get(lead++);
+        // leads are always combined, their bounds are not greater than the global ones
+        int e = index.indexOf(itemset);
+        if (e >= 0) {
+          int position = (int) index.value(e);
+          for (int j = position + 1; j < classEnd[position]; ++j) {
+            int last = combinedItemsets.get(j)[length - 1];
+            if (allSubsetsCombined(index, itemset, last, subset)) {
+              int[] candidate = Arrays.copyOf(itemset, length + 1);
+              candidate[length] = last;
+              candidates.add(candidate);
+            }
           }
-        } else {
-          find = true;
         }
+        totalCandidateCount += numJoined + candidates.size();
       }
+      numJoined += candidates.size();
+      return lead;
+    }
 
-      if (!find) {
-        if (start > end) {
-          return -1;
+    /** The largest last item of the candidates of the leads from the given one on. */
+    int maxLastItem(int from) {
+      int maxLast = 0;
+      for (int lead = from; lead < highMUtilityItemsets.size(); ++lead) {
+        int[] itemset = highMUtilityItemsets.get(lead);
+        int e = index.indexOf(itemset);
+        if (e >= 0) {
+          int position = (int) index.value(e);
+          // the last items of a class ascend, the first candidate from its end is the largest
+          for (int j = classEnd[position] - 1; j > position; --j) {
+            int last = combinedItemsets.get(j)[length - 1];
+            if (last <= maxLast) {
+              break;
+            }
+            if (allSubsetsCombined(index, itemset, last, subset)) {
+              maxLast = last;
+              break;
+            }
+          }
         }
-        middle = (start + end) / 2;
       }
+      return maxLast;
     }
+  }
 
-    return middle;
+  // whether every subset of lead with last, which leaves out one item of lead but its last, is
+  // combined, the subset with the last item of lead left out is the joined one
+  private static boolean allSubsetsCombined(ItemsetMap index, int[] lead, int last, int[] subset) {
+    int length = lead.length;
+    for (int skip = length - 2; skip >= 0; --skip) {
+      System.arraycopy(lead, 0, subset, 0, skip);
+      System.arraycopy(lead, skip + 1, subset, skip, length - 1 - skip);
+      subset[length - 1] = last;
+      if (!index.containsKey(subset)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   private static class Candidate {
     int[] itemset;
+    int index;
     int tUtility;
     double mUtility;
     double gMUtility;
-    int tempTUtility;
-    int checkIndex;
-    Record checkRecord;
   }
 
-  private static String idArrayString(int[] itemset) {
-    StringBuilder stringBuilder = new StringBuilder();
-    for (int i = 0; i < itemset.length - 1; ++i) stringBuilder.append(itemset[i]).append(",");
+  // utilities of every candidate collected by one worker
+  private static final class PartialCounts {
+    final int[] tUtility;
+    final double[] mUtility;
+    final double[] gMUtility;
+
+    PartialCounts(int numCandidates) {
+      tUtility = new int[numCandidates];
+      mUtility = new double[numCandidates];
+      gMUtility = new double[numCandidates];
+    }
+
+    void add(PartialCounts other) {
+      for (int c = 0; c < tUtility.length; ++c) {
+        tUtility[c] += other.tUtility[c];
+        mUtility[c] += other.mUtility[c];
+        gMUtility[c] += other.gMUtility[c];
+      }
+    }
+  }
+
+  // counts the chunks from low to high, the partial results are always added in the same order
+  private final class CountTask extends RecursiveTask<PartialCounts> {
+    private static final long serialVersionUID = 1L;
+    private final List<Candidate> candidates;
+    private final CandidateTrie trie;
+    private final int numChunks;
+    private final int low;
+    private final int high;
+    private final int[] survived;
+
+    CountTask(
+        List<Candidate> candidates,
+        CandidateTrie trie,
+        int numChunks,
+        int low,
+        int high,
+        int[] survived) {
+      this.candidates = candidates;
+      this.trie = trie;
+      this.numChunks = numChunks;
+      this.low = low;
+      this.high = high;
+      this.survived = survived;
+    }
 
-    stringBuilder.append(itemset[itemset.length - 1]);
+    @Override
+    protected PartialCounts compute() {
+      if (high - low == 1) {
+        return countChunk(candidates, trie, numChunks, low, survived);
+      }
 
-    return stringBuilder.toString();
+      int middle = (low + high) >>> 1;
+      CountTask left = new CountTask(candidates, trie, numChunks, low, middle, survived);
+      CountTask right = new CountTask(candidates, trie, numChunks, middle, high, survived);
+      left.fork();
+      PartialCounts rightCounts = right.compute();
+      PartialCounts leftCounts = left.join();
+      leftCounts.add(rightCounts);
+      return leftCounts;
+    }
   }
 
-  private static int[] idStringArray(String idString) {
-    String[] stringArray = idString.split(",");
-    int[] intArray = new int[stringArray.length];
-    for (int i = 0; i < stringArray.length; ++i) intArray[i] = Integer.parseInt(stringArray[i]);
+  private static int scanChunks(int numTransactions) {
+    return Integer.max(1, Integer.min(MAX_SCAN_CHUNKS, numTransactions / MIN_SCAN_CHUNK));
+  }
 
-    return intArray;
+  private static int chunkStart(int numTransactions, int numChunks, int chunk) {
+    return (int) ((long) numTransactions * chunk / numChunks);
   }
 
-  private void nextLevel() {
+  void nextLevel() {
     ArrayList<int[]> tempMUtilityItemsets = new ArrayList<>();
     ArrayList<int[]> tempCombinedItemsets = new ArrayList<>();
-    Set<Integer> tempReserved = new HashSet<>();
+    BitSet tempReserved = new BitSet(maxItemID + 1);
     int length = highMUtilityItemsets.get(0).length + 1;
+    currentLevel = new LevelMetrics(length);
     if (combinedItemsets.size() >= length) {
-      ListIterator<int[]> i = highMUtilityItemsets.listIterator();
-      List<Candidate> candidateItemset = new ArrayList<>();
-      @SuppressWarnings("unchecked")
-      List<Candidate>[] mapCandidates = new List[maxKey + 1];
-      maxKey = 0;
-
-      // generate candidate list
-      while (i.hasNext()) {
-        int[] oneItemset = i.next();
-        int start = i.nextIndex();
-        int skipPostion = oneItemset.length - 1;
-
-        int position;
-        int shift = oneItemset[oneItemset.length - 1];
-        int[] candidateCount = new int[maxItemID + 1 - shift];
-        boolean findCombine;
-        while (skipPostion >= 0) {
-          if (oneItemset.length > 1) {
-            findCombine = false;
-
-            if (skipPostion != oneItemset.length - 1) {
-
-              int[] targetArray = new int[oneItemset.length - 1];
-              System.arraycopy(oneItemset, 0, targetArray, 0, skipPostion);
-              System.arraycopy(
-                  oneItemset,
-                  skipPostion + 1,
-                  targetArray,
-                  skipPostion,
-                  oneItemset.length - 1 - skipPostion);
-              position = findPosition(targetArray, start);
-
-            } else {
-              position = findPosition(oneItemset, start);
-              if (position == -1) {
-                position = start;
-              } else {
-                ++position;
-              }
-            }
-
-            if (position == -1) {
-              break;
+      long generationStart = System.nanoTime();
+      CandidateJoin join = new CandidateJoin();
+      long maxCandidates =
+          memoryBudget > 0 ? Long.max(1, memoryBudget / candidateBytes(length)) : Long.MAX_VALUE;
+      // with several partitions every one of them is counted in the related transactions of the
+      // level, and the transactions which matched any of them are kept
+      int[] levelRelated = null;
+      int numLevelRelated = numRelated;
+      BitSet matched = null;
+      int numPartitions = 0;
+      // the last item of any candidate of the level, every partition bounds with it
+      int levelMaxKey = 0;
+
+      int lead = 0;
+      while (lead < highMUtilityItemsets.size()) {
+        if (numPartitions > 0) {
+          generationStart = System.nanoTime();
+        }
+        List<int[]> candidateItemsets = new ArrayList<>();
+        lead = join.join(lead, maxCandidates, candidateItemsets);
+        ++numPartitions;
+        if (numPartitions == 1) {
+          for (int[] itemset : candidateItemsets) {
+            levelMaxKey = Integer.max(levelMaxKey, itemset[itemset.length - 1]);
+          }
+          if (lead < highMUtilityItemsets.size()) {
+            levelMaxKey = Integer.max(levelMaxKey, join.maxLastItem(lead));
+            if (source == null) {
+              levelRelated = Arrays.copyOf(relatedTransactions, numRelated);
+              matched = new BitSet(working.size());
             }
+          }
+        }
+        currentLevel.generationNanos += System.nanoTime() - generationStart;
+        if (levelRelated != null) {
+          System.arraycopy(levelRelated, 0, relatedTransactions, 0, numLevelRelated);
+          numRelated = numLevelRelated;
+        }
 
-            for (int j = position; j < combinedItemsets.size(); ++j) {
-              int[] twoItemset = combinedItemsets.get(j);
-
-              Pair<Integer, int[]> mergeResult = mergeItemsets(oneItemset, twoItemset);
-              int[] threeItemset = mergeResult.second;
-              int mergeSkip = mergeResult.first;
-
-              if (threeItemset[threeItemset.length - 1] != 0 && mergeSkip == skipPostion) {
-                if (skipPostion != 0) {
-                  int index = threeItemset[threeItemset.length - 1] - shift;
-                  if ((candidateCount[index] += 1) == oneItemset.length - skipPostion) {
-                    findCombine = true;
-                  }
-                } else {
-                  int value = candidateCount[threeItemset[threeItemset.length - 1] - shift];
-                  if (value + 1 == oneItemset.length) {
-                    Candidate aCandidate = new Candidate();
-                    aCandidate.itemset = threeItemset;
-                    aCandidate.tUtility = 0;
-                    aCandidate.mUtility = 0;
-                    candidateItemset.add(aCandidate);
-                    for (int name : aCandidate.itemset) {
-                      List<Candidate> record = mapCandidates[name];
-                      maxKey = Integer.max(maxKey, name);
-                      boolean newRecord = record == null;
-                      if (newRecord) {
-                        record = new LinkedList<>();
-                      }
-                      record.add(aCandidate);
-                      if (newRecord) {
-                        mapCandidates[name] = record;
-                      }
-                    }
-                  }
-                }
-              } else {
-                start = j;
-                break;
-              }
-            }
+        maxKey = levelMaxKey;
+        countCandidates(
+            candidateItemsets,
+            numPartitions == 1 && lead == highMUtilityItemsets.size(),
+            tempMUtilityItemsets,
+            tempCombinedItemsets,
+            tempReserved);
+        if (matched != null) {
+          for (int r = 0; r < numRelated; ++r) matched.set(relatedTransactions[r]);
+        }
+      }
 
-            if (!findCombine) {
-              break;
-            }
-          } else {
-            for (int j = start; j < combinedItemsets.size(); ++j) {
-              int[] twoItemst = combinedItemsets.get(j);
-              Candidate aCandidate = new Candidate();
-              aCandidate.itemset = mergeItemsets(oneItemset, twoItemst).second;
-              aCandidate.tUtility = 0;
-              aCandidate.mUtility = 0;
-              candidateItemset.add(aCandidate);
-              for (int name : aCandidate.itemset) {
-                List<Candidate> record = mapCandidates[name];
-                maxKey = Integer.max(maxKey, name);
-                boolean newRecord = record == null;
-                if (newRecord) {
-                  record = new LinkedList<>();
-                }
-                record.add(aCandidate);
-                if (newRecord) {
-                  mapCandidates[name] = record;
-                }
-              }
-            }
+      if (matched != null) {
+        numRelated = 0;
+        for (int r = 0; r < numLevelRelated; ++r) {
+          if (matched.get(levelRelated[r])) {
+            relatedTransactions[numRelated++] = levelRelated[r];
           }
-          --skipPostion;
         }
-        totalCandidateCount += candidateItemset.size();
       }
+      currentLevel.partitions = numPartitions;
+    }
 
-      // scan database
-      ListIterator<Integer> index = relatedTransactions.listIterator();
-      while (index.hasNext()) {
-        boolean noUse = true;
-        // boolean noNext = false;
-        Record aRecord = data.get(index.next());
+    highMUtilityItemsets = tempMUtilityItemsets;
+    combinedItemsets = tempCombinedItemsets;
+    reserved = tempReserved;
+    if (!highMUtilityItemsets.isEmpty()) {
+      project(length + 1);
+    }
+    finishLevel();
+  }
 
-        for (int j = 0; j < aRecord.items.size(); ++j) {
-          Pair<Integer, Integer> item = aRecord.items.get(j);
-          if (item.first > maxKey) {
-            break;
-          }
+  // the estimated bytes of a candidate of the given length while its level is counted: the
+  // itemset, the Candidate with its places in the lists, its nodes in the trie and its partial
+  // counts, of which every thread holds about two
+  private long candidateBytes(int length) {
+    long itemset = (16 + 4L * length + 7) / 8 * 8;
+    return itemset + CANDIDATE_BYTES + TRIE_BYTES + 2L * (getThreads() + 1) * COUNT_BYTES;
+  }
 
-          List<Candidate> candidates = mapCandidates[item.first];
-          if (candidates != null) {
-            for (Candidate c : candidates) {
-              if (c.itemset[0] == item.first) {
-                c.checkIndex = 0;
-                c.checkRecord = aRecord;
-                c.tempTUtility = item.second;
-              } else if ((aRecord == c.checkRecord && c.itemset[c.checkIndex + 1] == item.first)) {
-                ++c.checkIndex;
-                c.tempTUtility += item.second;
-                if (c.checkIndex + 1 == c.itemset.length) {
-                  noUse = false;
-                  c.tUtility += c.tempTUtility;
-
-                  Quaternionic<Integer, Integer, Integer, Integer> maxFollowResults =
-                      checkMaxFollow(c.itemset, aRecord.items, j + 1);
-                  if (maxFollowResults.third > 0) {
-                    if (((double) c.tempTUtility / (double) c.itemset.length)
-                        >= maxFollowResults.first) {
-                      c.gMUtility +=
-                          (double) (c.tempTUtility + maxFollowResults.first)
-                              / (double) (c.itemset.length + 1);
-                    } else {
-                      c.gMUtility +=
-                          (double)
-                                  (c.tempTUtility + maxFollowResults.third * maxFollowResults.first)
-                              / (double) (c.itemset.length + maxFollowResults.third);
-                    }
-                  }
-                  if (maxFollowResults.fourth > 0) {
-                    if (((double) c.tempTUtility / (double) c.itemset.length)
-                        >= maxFollowResults.second) {
-                      c.mUtility +=
-                          (double) (c.tempTUtility + maxFollowResults.second)
-                              / (double) (c.itemset.length + 1);
-                    } else {
-                      c.mUtility +=
-                          (double)
-                                  (c.tempTUtility
-                                      + maxFollowResults.fourth * maxFollowResults.second)
-                              / (double) (c.itemset.length + maxFollowResults.fourth);
-                    }
-                  }
-                }
-              }
-            }
-          }
-        }
+  // counts the candidates of a partition of the level and adds the itemsets to the next level,
+  // only the last partition of a level may drop the transactions of a stream which matched none
+  private void countCandidates(
+      List<int[]> candidateItemsets,
+      boolean dropStream,
+      List<int[]> tempMUtilityItemsets,
+      List<int[]> tempCombinedItemsets,
+      BitSet tempReserved) {
+    long generationStart = System.nanoTime();
+    List<Candidate> candidateItemset = new ArrayList<>();
+
+    for (int[] itemset : candidateItemsets) {
+      Candidate aCandidate = new Candidate();
+      aCandidate.itemset = itemset;
+      aCandidate.index = candidateItemset.size();
+      candidateItemset.add(aCandidate);
+    }
+    CandidateTrie trie = new CandidateTrie(candidateItemsets);
+    long scanStart = System.nanoTime();
+    currentLevel.generationNanos += scanStart - generationStart;
+    currentLevel.candidates += candidateItemsets.size();
+
+    // scan database
+    PartialCounts counts =
+        source != null
+            ? countStream(candidateItemset, trie, dropStream)
+            : countRelated(candidateItemset, trie);
+    currentLevel.scanNanos += System.nanoTime() - scanStart;
+
+    for (Candidate c : candidateItemset) {
+      c.tUtility = counts.tUtility[c.index];
+      c.mUtility = counts.mUtility[c.index];
+      c.gMUtility = counts.gMUtility[c.index];
+    }
+
+    // check utility, before the bounds as it may raise the threshold in top-k mode
+    for (Candidate c : candidateItemset) {
+      addItemset(c.itemset, (double) c.tUtility / (double) c.itemset.length);
+    }
 
-        if (noUse) {
-          index.remove();
+    for (Candidate c : candidateItemset) {
+      if (leadUpperbound) {
+        if (c.mUtility >= thresholdCount) {
+          tempMUtilityItemsets.add(c.itemset);
+        }
+      } else {
+        if (c.gMUtility >= thresholdCount) {
+          tempMUtilityItemsets.add(c.itemset);
         }
       }
 
-      // check utility
-      for (Candidate c : candidateItemset) {
-        double aUtility = (double) c.tUtility / (double) c.itemset.length;
+      if (c.gMUtility >= thresholdCount) {
+        tempCombinedItemsets.add(c.itemset);
+        addReserved(tempReserved, c.itemset);
+      }
+    }
+  }
 
-        if (aUtility >= minSupCount) {
-          highAUtilityItemsetsCount.put(idArrayString(c.itemset), aUtility);
-        } else if (preLargeCount != null && aUtility >= preLargeCount) {
-          preLargeUtilityItemsetsCount.put(idArrayString(c.itemset), aUtility);
+  // cuts the related transactions down to the reserved items and merges the identical ones, the
+  // transactions shorter than the next candidates cannot match any of them
+  private void project(int minLength) {
+    if (!projection || source != null) {
+      return;
+    }
+    working = working.project(relatedTransactions, numRelated, reserved, minLength);
+
+    numRelated = working.size();
+    relatedTransactions = new int[numRelated];
+    for (int i = 0; i < numRelated; ++i) relatedTransactions[i] = i;
+  }
+
+  // counts the candidates in the related transactions of working and keeps those which matched
+  private PartialCounts countRelated(List<Candidate> candidates, CandidateTrie trie) {
+    int numChunks = scanChunks(numRelated);
+    int[] survived = new int[numChunks];
+    PartialCounts counts =
+        pool.invoke(new CountTask(candidates, trie, numChunks, 0, numChunks, survived));
+
+    // move the surviving transactions of every chunk to the front
+    int numSurvived = 0;
+    for (int chunk = 0; chunk < numChunks; ++chunk) {
+      System.arraycopy(
+          relatedTransactions,
+          chunkStart(numRelated, numChunks, chunk),
+          relatedTransactions,
+          numSurvived,
+          survived[chunk]);
+      numSurvived += survived[chunk];
+    }
+    numRelated = numSurvived;
+    return counts;
+  }
+
+  // counts the candidates block by block, blocks without surviving transactions are not read, and
+  // the transactions which matched no candidate are dropped from the survivors if dropSurvivors
+  private PartialCounts countStream(
+      List<Candidate> candidates, CandidateTrie trie, boolean dropSurvivors) {
+    PartialCounts counts = new PartialCounts(candidates.size());
+    int[] alive = new int[0];
+
+    try {
+      for (int b = 0; b < source.getNumBlocks(); ++b) {
+        int first = source.firstTransaction(b);
+        int blockTransactions = source.blockTransactions(b);
+        if (!survivors.any(first, first + blockTransactions)) {
+          continue;
         }
 
-        if (leadUpperbound) {
-          if (c.mUtility >= thresholdCount) {
-            tempMUtilityItemsets.add(c.itemset);
-          }
-        } else {
-          if (c.gMUtility >= thresholdCount) {
-            tempMUtilityItemsets.add(c.itemset);
+        working = source.readBlock(b);
+        if (alive.length < blockTransactions) {
+          alive = new int[blockTransactions];
+          relatedTransactions = new int[blockTransactions];
+        }
+        int numAlive = 0;
+        for (int t = 0; t < blockTransactions; ++t) {
+          if (survivors.get(first + t)) {
+            alive[numAlive++] = t;
           }
         }
+        System.arraycopy(alive, 0, relatedTransactions, 0, numAlive);
+        numRelated = numAlive;
 
-        if (c.gMUtility >= thresholdCount) {
-          tempCombinedItemsets.add(c.itemset);
-          addReserved(tempReserved, c.itemset);
+        counts.add(countRelated(candidates, trie));
+
+        // both lists are ascending, clear the transactions which did not survive
+        int s = 0;
+        for (int a = 0; dropSurvivors && a < numAlive; ++a) {
+          if (s < numRelated && relatedTransactions[s] == alive[a]) {
+            ++s;
+          } else {
+            survivors.clear(first + alive[a]);
+          }
         }
       }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      working = null;
+      numRelated = 0;
     }
+    return counts;
+  }
 
-    highMUtilityItemsets = tempMUtilityItemsets;
-    combinedItemsets = tempCombinedItemsets;
-    reserved = tempReserved;
-    checkMemory();
+  // collects the utilities of the candidates matched in one transaction
+  private final class ChunkVisitor implements CandidateTrie.Visitor {
+    private final List<Candidate> candidates;
+    private final PartialCounts counts;
+    final MaxFollow follow = newMaxFollow();
+    int weight;
+    boolean used;
+
+    ChunkVisitor(List<Candidate> candidates, PartialCounts counts) {
+      this.candidates = candidates;
+      this.counts = counts;
+    }
+
+    @Override
+    public void matched(int k, int tempTUtility, int position, int gap) {
+      int length = candidates.get(k).itemset.length;
+      used = true;
+      // a record merges weight identical transactions, whose bounds are all the same
+      counts.tUtility[k] += weight * tempTUtility;
+
+      follow.check(length, position, gap);
+      if (follow.countOther > 0) {
+        counts.gMUtility[k] +=
+            weight * MaxFollow.upperbound(tempTUtility, length, follow.max, follow.countOther);
+      }
+      if (follow.countFollowOther > 0) {
+        counts.mUtility[k] +=
+            weight
+                * MaxFollow.upperbound(
+                    tempTUtility, length, follow.maxFollow, follow.countFollowOther);
+      }
+    }
+  }
+
+  // counts the candidates in one chunk of the related transactions
+  private PartialCounts countChunk(
+      List<Candidate> candidates, CandidateTrie trie, int numChunks, int chunk, int[] survived) {
+    PartialCounts counts = new PartialCounts(candidates.size());
+    ChunkVisitor visitor = new ChunkVisitor(candidates, counts);
+    int[] items = working.items();
+    int[] utilities = working.utilities();
+    int[] offsets = working.offsets();
+    int[] weights = working.weights();
+    int from = chunkStart(numRelated, numChunks, chunk);
+    int to = chunkStart(numRelated, numChunks, chunk + 1);
+    int numSurvived = 0;
+
+    for (int r = from; r < to; ++r) {
+      int tid = relatedTransactions[r];
+      visitor.weight = weights == null ? 1 : weights[tid];
+      visitor.used = false;
+      visitor.follow.prepare(working, tid);
+      trie.match(
+          items, utilities, offsets[tid], offsets[tid + 1], visitor.follow.gaps(), visitor);
+
+      if (visitor.used) {
+        relatedTransactions[from + numSurvived++] = tid;
+      }
+    }
+
+    survived[chunk] = numSurvived;
+    return counts;
   }
 
-  private Quaternionic<Integer, Integer, Integer, Integer> checkMaxFollow(
-      int[] candidateItemset, List<Pair<Integer, Integer>> itemsets, int position) {
-    int max = 0;
-    int maxFollow = 0;
-    int countOther = 0;
-    int countFollowOther = 0;
+  /** The bounds of the candidates of this level in a transaction, for a single thread. */
+  MaxFollow newMaxFollow() {
+    return new MaxFollow(reserved, maxKey);
+  }
 
-    for (int i = 0; i < itemsets.size(); ++i) {
-      int name = itemsets.get(i).first;
-      if (name > maxKey) {
-        break;
+  // keeps a high or a pre-large itemset, in top-k mode offers it to the top itemsets and raises the
+  // thresholds with them
+  private void addItemset(int[] itemset, double aUtility) {
+    if (topItemsets != null) {
+      if (topItemsets.offer(itemset, aUtility)) {
+        minSupCount = topItemsets.threshold();
+        thresholdCount = minSupCount;
+        ++currentLevel.hauis;
+      }
+    } else if (aUtility >= minSupCount) {
+      if (resultSink != null) {
+        resultSink.high(itemset, aUtility);
+        // it never gets into the map, which is counted at the end of the run
+        if (sweep != null) {
+          sweep.add(aUtility);
+        }
+      } else {
+        highAUtilityItemsetsCount.put(itemset, aUtility);
       }
+      ++currentLevel.hauis;
+    } else if (preLargeCount != null && aUtility >= preLargeCount) {
+      if (resultSink != null) {
+        resultSink.preLarge(itemset, aUtility);
+      } else {
+        preLargeUtilityItemsetsCount.put(itemset, aUtility);
+      }
+      ++currentLevel.preLarges;
+    }
+  }
+
+  private void addReserved(BitSet tempReserved, int[] itemsets) {
+    for (int i : itemsets) tempReserved.set(i);
+  }
 
-      if (Arrays.binarySearch(candidateItemset, name) < 0 && reserved.contains(name)) {
-        countOther++;
-        int value = itemsets.get(i).second;
-        if (value > max) {
-          max = value;
+  public void run() {
+    if (numTransactions != 0 && (minSup != 0.0 || topK > 0)) {
+      if (engine != MiningEngine.LEVEL_WISE) {
+        runDepthFirst();
+      } else {
+        resumedLevel = checkpointDirectory != null ? resume() : 0;
+        if (resumedLevel == 0) {
+          firstLevel();
         }
-        if (i >= position) {
-          countFollowOther++;
-          if (value > maxFollow) {
-            maxFollow = value;
-          }
+        while (hasNextLevel()) {
+          nextLevel();
+        }
+        if (checkpointDirectory != null) {
+          finishCheckpoints();
         }
+        if (topItemsets != null) {
+          topItemsets.putInto(highAUtilityItemsetsCount);
+          topItemsets = null;
+        }
+      }
+      if (sweep != null) {
+        sweep.addAll(highAUtilityItemsetsCount);
+      }
+      if (resultSink != null) {
+        resultSink.writeAll(highAUtilityItemsetsCount, true);
+        resultSink.writeAll(preLargeUtilityItemsetsCount, false);
+        resultSink.flush();
+        highAUtilityItemsetsCount = new ItemsetMap();
+        preLargeUtilityItemsetsCount = new ItemsetMap();
       }
     }
-    return new Quaternionic<>(max, maxFollow, countOther, countFollowOther);
   }
 
-  private void addReserved(Set<Integer> tempReserved, int[] itemsets) {
-    for (int i : itemsets) tempReserved.add(i);
+  // mines the loaded data set one branch at a time with the vertical or the depth-first engine,
+  // the levels are not kept
+  private void runDepthFirst() {
+    if (source != null) {
+      throw new IllegalStateException("The " + engine + " engine needs the data set in memory");
+    }
+    if (topK > 0) {
+      throw new IllegalStateException("The " + engine + " engine cannot mine the top-k itemsets");
+    }
+    highAUtilityItemsetsCount = new ItemsetMap();
+    preLargeUtilityItemsetsCount = new ItemsetMap();
+    levelMetrics = new ArrayList<>();
+    if (engine == MiningEngine.VERTICAL) {
+      UtilityListMiner miner =
+          new UtilityListMiner(
+              data, minSupCount, preLargeCount, thresholdCount, leadUpperbound, pool);
+      miner.mine(highAUtilityItemsetsCount, preLargeUtilityItemsetsCount);
+      totalCandidateCount = miner.getNumCandidates();
+    } else {
+      DepthFirstMiner miner =
+          new DepthFirstMiner(
+              data, minSupCount, preLargeCount, thresholdCount, leadUpperbound, pool);
+      miner.mine(highAUtilityItemsetsCount, preLargeUtilityItemsetsCount);
+      totalCandidateCount = miner.getNumCandidates();
+    }
+    checkMemory();
   }
 
-  public void run() {
-    if (data.size() != 0 && minSup != 0.0) {
-      highAUtilityItemsetsCount = new HashMap<>();
-      preLargeUtilityItemsetsCount = new HashMap<>();
-      highMUtilityItemsets = new ArrayList<>();
-      combinedItemsets = new ArrayList<>();
-
-      // find large-1 itemsets
-      ArrayList<Pair<Integer, Integer>> utilityInfos = new ArrayList<>(); // utility, mUtility
-      utilityInfos.ensureCapacity(maxItemID + 1);
-      totalCandidateCount = maxItemID + 1;
-      for (int i = 0; i <= maxItemID; ++i) utilityInfos.add(new Pair<>(0, 0));
-
-      for (Record aRecord : data) {
-        List<Pair<Integer, Integer>> items = aRecord.items;
-
-        for (Pair<Integer, Integer> item : items) {
-          int name = item.first;
-          int utility = item.second;
-          utilityInfos.get(name).first += utility;
-          utilityInfos.get(name).second += aRecord.maxUtility;
+  // finds the large-1 itemsets and prepares the candidates of the second level
+  void firstLevel() {
+    highAUtilityItemsetsCount = new ItemsetMap();
+    preLargeUtilityItemsetsCount = new ItemsetMap();
+    highMUtilityItemsets = new ArrayList<>();
+    combinedItemsets = new ArrayList<>();
+    levelMetrics = new ArrayList<>();
+    currentLevel = new LevelMetrics(1);
+    topItemsets = null;
+    if (topK > 0) {
+      topItemsets = new TopKItemsets(topK);
+      minSupCount = topItemsets.threshold();
+      thresholdCount = minSupCount;
+    }
+
+    // find large-1 itemsets
+    int[] utility = new int[maxItemID + 1];
+    int[] mUtility = new int[maxItemID + 1];
+    totalCandidateCount = maxItemID + 1;
+
+    long scanStart = System.nanoTime();
+    if (source != null) {
+      survivors.setAll();
+      try {
+        for (int b = 0; b < source.getNumBlocks(); ++b) {
+          addItemUtilities(source.readBlock(b), utility, mUtility);
         }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
+    } else {
+      // every run starts from all the transactions of the loaded data set
+      working = data;
+      numRelated = data.size();
+      relatedTransactions = new int[numRelated];
+      for (int i = 0; i < numRelated; ++i) relatedTransactions[i] = i;
+      addItemUtilities(data, utility, mUtility);
+    }
 
-      reserved = new HashSet<>();
-      for (int i = 1; i <= maxItemID; ++i) {
+    currentLevel.scanNanos = System.nanoTime() - scanStart;
+    currentLevel.candidates = maxItemID;
+    currentLevel.partitions = 1;
+
+    reserved = new BitSet(maxItemID + 1);
+    for (int i = 1; i <= maxItemID; ++i) addItemset(new int[] {i}, utility[i]);
+    for (int i = 1; i <= maxItemID; ++i) {
+      if (mUtility[i] >= thresholdCount) {
         int[] itemset = {i};
-        if (utilityInfos.get(i).first >= minSupCount) {
-          highAUtilityItemsetsCount.put(idArrayString(itemset), (double) utilityInfos.get(i).first);
-        } else if (preLargeCount != null && utilityInfos.get(i).first >= preLargeCount) {
-          preLargeUtilityItemsetsCount.put(
-              idArrayString(itemset), (double) utilityInfos.get(i).first);
-        }
+        highMUtilityItemsets.add(itemset);
+        combinedItemsets.add(itemset);
+        reserved.set(i);
+      }
+    }
+    if (!highMUtilityItemsets.isEmpty()) {
+      project(2);
+    }
+    finishLevel();
+  }
 
-        if (utilityInfos.get(i).second >= thresholdCount) {
-          highMUtilityItemsets.add(itemset);
-          combinedItemsets.add(itemset);
-          reserved.add(i);
-        }
+  // records the itemsets and the transactions the level leaves to the next one
+  private void finishLevel() {
+    currentLevel.leads = highMUtilityItemsets.size();
+    currentLevel.combined = combinedItemsets.size();
+    currentLevel.relatedTransactions = source != null ? survivors.cardinality() : numRelated;
+    if (resultSink != null) {
+      resultSink.flush();
+    }
+    currentLevel.finish(checkMemory());
+    levelMetrics.add(currentLevel);
+    if (checkpointDirectory != null && hasNextLevel()) {
+      writeCheckpoint(currentLevel.level);
+    }
+    currentLevel = null;
+  }
+
+  // the data set and the thresholds of a checkpoint of this run
+  private Checkpoint newCheckpoint() {
+    Checkpoint checkpoint = new Checkpoint();
+    checkpoint.numTransactions = numTransactions;
+    checkpoint.maxItemID = maxItemID;
+    checkpoint.totalUtility = totalUtility;
+    checkpoint.minSupCount = minSupCount;
+    checkpoint.preLargeCount = preLargeCount != null ? preLargeCount : Double.NaN;
+    checkpoint.leadUpperbound = leadUpperbound;
+    checkpoint.projection = projection;
+    checkpoint.streaming = source != null;
+    return checkpoint;
+  }
+
+  // takes what the next level starts from and writes it while the next level is mined, the lists
+  // and the projection are not changed once their level is done, the rest is copied
+  private void writeCheckpoint(int level) {
+    Checkpoint checkpoint = newCheckpoint();
+    checkpoint.level = level;
+    checkpoint.totalCandidateCount = totalCandidateCount;
+    checkpoint.leads = highMUtilityItemsets;
+    checkpoint.combined = combinedItemsets;
+    checkpoint.reserved = reserved;
+    checkpoint.highItemsets = highAUtilityItemsetsCount.copy();
+    checkpoint.preLargeItemsets = preLargeUtilityItemsetsCount.copy();
+    if (source != null) {
+      checkpoint.survivors = survivors.toWords();
+    } else {
+      checkpoint.working = working != data ? working : null;
+      checkpoint.related = Arrays.copyOf(relatedTransactions, numRelated);
+    }
+
+    // a single checkpoint is held in memory at a time
+    awaitCheckpoint();
+    if (checkpointWriter == null) {
+      checkpointWriter =
+          Executors.newSingleThreadExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, "apriori-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    pendingCheckpoint =
+        checkpointWriter.submit(
+            () -> {
+              checkpoint.write(checkpointDirectory);
+              return null;
+            });
+  }
+
+  /** Waits until the last checkpoint is written, a run driven level by level may stop then. */
+  void awaitCheckpoint() {
+    if (pendingCheckpoint == null) {
+      return;
+    }
+    try {
+      pendingCheckpoint.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while writing a checkpoint", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw new UncheckedIOException((IOException) e.getCause());
       }
-      while (highMUtilityItemsets.size() != 0) {
-        nextLevel();
+      throw new IllegalStateException("Cannot write the checkpoint", e.getCause());
+    } finally {
+      pendingCheckpoint = null;
+    }
+  }
+
+  // a complete run leaves no checkpoint to resume from
+  private void finishCheckpoints() {
+    awaitCheckpoint();
+    if (checkpointWriter != null) {
+      checkpointWriter.shutdown();
+      checkpointWriter = null;
+    }
+    try {
+      Files.deleteIfExists(checkpointDirectory.resolve(Checkpoint.FILE_NAME));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // restores the state after the level of the last checkpoint and gives that level, 0 without one
+  private int resume() {
+    if (topK > 0 || sweep != null || resultSink != null) {
+      throw new IllegalStateException(
+          "Checkpoints cannot be used with top-k, a threshold sweep or a result sink");
+    }
+    Path file = checkpointDirectory.resolve(Checkpoint.FILE_NAME);
+    Checkpoint checkpoint;
+    try {
+      Files.createDirectories(checkpointDirectory);
+      if (!Files.exists(file)) {
+        return 0;
+      }
+      checkpoint = Checkpoint.read(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (!checkpoint.sameSettings(newCheckpoint())) {
+      throw new IllegalStateException(
+          "The checkpoint " + file + " was written for another data set or other thresholds");
+    }
+
+    highAUtilityItemsetsCount = checkpoint.highItemsets;
+    preLargeUtilityItemsetsCount = checkpoint.preLargeItemsets;
+    highMUtilityItemsets = new ArrayList<>(checkpoint.leads);
+    combinedItemsets = new ArrayList<>(checkpoint.combined);
+    reserved = checkpoint.reserved;
+    totalCandidateCount = checkpoint.totalCandidateCount;
+    levelMetrics = new ArrayList<>();
+    topItemsets = null;
+    if (source != null) {
+      survivors.setWords(checkpoint.survivors);
+    } else {
+      working = checkpoint.working != null ? checkpoint.working : data;
+      relatedTransactions = checkpoint.related;
+      numRelated = relatedTransactions.length;
+    }
+    return checkpoint.level;
+  }
+
+  boolean hasNextLevel() {
+    return !highMUtilityItemsets.isEmpty();
+  }
+
+  /** The itemsets of the last level which are combined into the next candidates. */
+  List<int[]> getCombinedItemsets() {
+    return combinedItemsets;
+  }
+
+  /** The database the next level is counted in. */
+  TransactionDatabase getWorkingDatabase() {
+    return working;
+  }
+
+  private static void addItemUtilities(
+      TransactionDatabase database, int[] utility, int[] mUtility) {
+    int[] items = database.items();
+    int[] utilities = database.utilities();
+    int[] offsets = database.offsets();
+    int[] maxUtilities = database.maxUtilities();
+    for (int tid = 0; tid < database.size(); ++tid) {
+      for (int j = offsets[tid]; j < offsets[tid + 1]; ++j) {
+        utility[items[j]] += utilities[j];
+        mUtility[items[j]] += maxUtilities[tid];
       }
     }
   }
 
-  public Map<String, Double> getHighAUtilityItemsetsCount() {
+  public ItemsetMap getHighAUtilityItemsetsCount() {
     return highAUtilityItemsetsCount;
   }
 
-  public Map<String, Double> getPreLargeUtilityItemsetsCount() {
+  public ItemsetMap getPreLargeUtilityItemsetsCount() {
     return preLargeUtilityItemsetsCount;
   }
 
-  private static class ItemsetInfo {
-    int[] itemset;
-    MutableDouble aUtility;
-    int tempTUtility = 0;
-    int checkIndex;
-    Record checkRecord;
-  }
-
-  public void reScan(
-      List<Pair<String, MutableDouble>> itemsetList1,
-      List<Pair<String, MutableDouble>> itemsetList2) {
-    HashMap<Integer, List<ItemsetInfo>> mapInfos = new HashMap<>();
-    int maxKey = 0;
-
-    for (Pair<String, MutableDouble> itemset : itemsetList1) {
-      ItemsetInfo info = new ItemsetInfo();
-      info.itemset = idStringArray(itemset.first);
-      info.aUtility = itemset.second;
-
-      for (int name : info.itemset) {
-        List<ItemsetInfo> infos = mapInfos.get(name);
-        maxKey = Integer.max(name, maxKey);
-        boolean newInfo = infos == null;
-        if (newInfo) {
-          infos = new ArrayList<>();
-        }
-        infos.add(info);
-        if (newInfo) {
-          mapInfos.put(name, infos);
-        }
+  /**
+   * Adds the average utilities of the itemsets in the data set to their values in both maps. A
+   * loaded data set is searched through its item index, so only the transactions containing the
+   * rarest item of an itemset are visited, and the itemsets are shared out among the threads.
+   */
+  public void reScan(ItemsetMap itemsetMap1, ItemsetMap itemsetMap2) {
+    List<int[]> itemsets = new ArrayList<>();
+    // the map and the entry of every itemset
+    List<ItemsetMap> maps = new ArrayList<>();
+    int[] entries = new int[itemsetMap1.size() + itemsetMap2.size()];
+
+    for (ItemsetMap map : Arrays.asList(itemsetMap1, itemsetMap2)) {
+      for (int e = map.first(); e >= 0; e = map.next(e)) {
+        entries[itemsets.size()] = e;
+        itemsets.add(map.itemset(e));
+        maps.add(map);
       }
     }
 
-    for (Pair<String, MutableDouble> itemset : itemsetList2) {
-      ItemsetInfo info = new ItemsetInfo();
-      info.itemset = idStringArray(itemset.first);
-      info.aUtility = itemset.second;
+    if (itemsets.isEmpty()) {
+      return;
+    }
 
-      for (int name : info.itemset) {
-        List<ItemsetInfo> infos = mapInfos.get(name);
-        maxKey = Integer.max(maxKey, name);
-        boolean newInfo = infos == null;
-        if (newInfo) {
-          infos = new ArrayList<>();
-        }
-        infos.add(info);
-        if (newInfo) {
-          mapInfos.put(name, infos);
-        }
+    if (source == null) {
+      if (!data.hasItemIndex()) {
+        data.buildItemIndex();
       }
+      double[] aUtilities = new double[itemsets.size()];
+      for (int i = 0; i < aUtilities.length; ++i) aUtilities[i] = maps.get(i).value(entries[i]);
+      pool.invoke(new ReScanTask(itemsets, aUtilities, 0, itemsets.size()));
+      for (int i = 0; i < aUtilities.length; ++i) maps.get(i).setValue(entries[i], aUtilities[i]);
+      return;
     }
 
-    for (Record record : data) {
-      for (Pair<Integer, Integer> item : record.items) {
-        if (item.first > maxKey) {
+    CandidateTrie trie = new CandidateTrie(itemsets);
+    CandidateTrie.Visitor visitor =
+        (i, tempTUtility, position, gap) -> {
+          ItemsetMap map = maps.get(i);
+          map.setValue(
+              entries[i],
+              map.value(entries[i]) + (double) tempTUtility / (double) itemsets.get(i).length);
+        };
+    try {
+      for (int b = 0; b < source.getNumBlocks(); ++b) {
+        matchAll(source.readBlock(b), trie, visitor);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // adds the average utilities of the itemsets from low to high
+  private final class ReScanTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int MIN_ITEMSETS = 16;
+    private final List<int[]> itemsets;
+    private final double[] aUtilities;
+    private final int low;
+    private final int high;
+
+    ReScanTask(List<int[]> itemsets, double[] aUtilities, int low, int high) {
+      this.itemsets = itemsets;
+      this.aUtilities = aUtilities;
+      this.low = low;
+      this.high = high;
+    }
+
+    @Override
+    protected void compute() {
+      if (high - low <= MIN_ITEMSETS) {
+        for (int i = low; i < high; ++i) aUtilities[i] = reScan(itemsets.get(i), aUtilities[i]);
+        return;
+      }
+
+      int middle = (low + high) >>> 1;
+      invokeAll(
+          new ReScanTask(itemsets, aUtilities, low, middle),
+          new ReScanTask(itemsets, aUtilities, middle, high));
+    }
+  }
+
+  // adds the average utility of an itemset in every transaction which contains it to aUtility
+  private double reScan(int[] itemset, double aUtility) {
+    int[] itemStart = data.itemStarts();
+    int[] itemTransactions = data.itemTransactions();
+    int[] items = data.items();
+    int[] utilities = data.utilities();
+    int[] offsets = data.offsets();
+
+    int rarest = -1;
+    for (int item : itemset) {
+      if (item > data.getMaxItemID()) {
+        return aUtility;
+      }
+      if (rarest == -1
+          || itemStart[item + 1] - itemStart[item] < itemStart[rarest + 1] - itemStart[rarest]) {
+        rarest = item;
+      }
+    }
+
+    for (int r = itemStart[rarest]; r < itemStart[rarest + 1]; ++r) {
+      int tid = itemTransactions[r];
+      int position = offsets[tid];
+      int end = offsets[tid + 1];
+      int tempTUtility = 0;
+      boolean contained = true;
+      // both are ascending, so every item is searched after the previous one
+      for (int item : itemset) {
+        position = Arrays.binarySearch(items, position, end, item);
+        if (position < 0) {
+          contained = false;
           break;
         }
+        tempTUtility += utilities[position++];
+      }
+      if (contained) {
+        aUtility += (double) tempTUtility / (double) itemset.length;
+      }
+    }
+    return aUtility;
+  }
 
-        List<ItemsetInfo> infos = mapInfos.get(item.first);
-        if (infos != null) {
-          for (ItemsetInfo i : infos) {
-            if (i.itemset[0] == item.first) {
-              i.checkIndex = 0;
-              i.checkRecord = record;
-              i.tempTUtility = item.second;
-            } else if ((record == i.checkRecord && i.itemset[i.checkIndex + 1] == item.first)) {
-              ++i.checkIndex;
-              i.tempTUtility += item.second;
-              if (i.checkIndex + 1 == i.itemset.length) {
-                i.aUtility.setValue(
-                    i.aUtility.getValue() + (double) i.tempTUtility / (double) i.itemset.length);
-              }
-            }
-          }
+  /**
+   * The exact utilities of the itemsets in the loaded data set, from one scan of it which is split
+   * among the threads.
+   */
+  long[] countUtilities(List<int[]> itemsets) {
+    if (itemsets.isEmpty()) {
+      return new long[0];
+    }
+    CandidateTrie trie = new CandidateTrie(itemsets);
+    int numChunks = Integer.min(scanChunks(data.size()), getThreads());
+    return pool.invoke(new UtilityTask(trie, itemsets.size(), numChunks, 0, numChunks));
+  }
+
+  // sums the utilities of the itemsets in the chunks from low to high, the sums are exact
+  private final class UtilityTask extends RecursiveTask<long[]> {
+    private static final long serialVersionUID = 1L;
+    private final CandidateTrie trie;
+    private final int numItemsets;
+    private final int numChunks;
+    private final int low;
+    private final int high;
+
+    UtilityTask(CandidateTrie trie, int numItemsets, int numChunks, int low, int high) {
+      this.trie = trie;
+      this.numItemsets = numItemsets;
+      this.numChunks = numChunks;
+      this.low = low;
+      this.high = high;
+    }
+
+    @Override
+    protected long[] compute() {
+      if (high - low == 1) {
+        long[] tUtilities = new long[numItemsets];
+        int[] items = data.items();
+        int[] utilities = data.utilities();
+        int[] offsets = data.offsets();
+        CandidateTrie.Visitor visitor =
+            (i, tUtility, position, gap) -> tUtilities[i] += tUtility;
+        int end = chunkStart(data.size(), numChunks, high);
+        for (int tid = chunkStart(data.size(), numChunks, low); tid < end; ++tid) {
+          trie.match(items, utilities, offsets[tid], offsets[tid + 1], visitor);
         }
+        return tUtilities;
       }
+
+      int middle = (low + high) >>> 1;
+      UtilityTask right = new UtilityTask(trie, numItemsets, numChunks, middle, high);
+      right.fork();
+      long[] tUtilities = new UtilityTask(trie, numItemsets, numChunks, low, middle).compute();
+      long[] rightUtilities = right.join();
+      for (int i = 0; i < numItemsets; ++i) tUtilities[i] += rightUtilities[i];
+      return tUtilities;
+    }
+  }
+
+  private static void matchAll(
+      TransactionDatabase database, CandidateTrie trie, CandidateTrie.Visitor visitor) {
+    int[] items = database.items();
+    int[] utilities = database.utilities();
+    int[] offsets = database.offsets();
+    for (int tid = 0; tid < database.size(); ++tid) {
+      trie.match(items, utilities, offsets[tid], offsets[tid + 1], visitor);
     }
   }
 }
@@ -0,0 +1,316 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A compact binary form of a transaction data set, written once by the convert command and loaded
+ * without parsing text.
+ *
+ * <p>The file starts with a header holding the maximal item ID, the total utility and the numbers
+ * of transactions, items and blocks. A block index of (byte offset, item offset) pairs follows,
+ * then the blocks. Each block holds BLOCK_SIZE transactions, each of them written as varints: the
+ * number of items, the transaction utility, the first item followed by the zigzag deltas of the
+ * others, and the utility of every item. Since every block knows where its items start, the blocks
+ * are decoded in parallel straight into the final arrays.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class BinaryDataset {
+  static final long MAGIC = 0x4841_5549_4249_4E31L; // HAUIBIN1
+  static final int VERSION = 1;
+  static final int BLOCK_SIZE = 1 << 16;
+  private static final int HEADER_SIZE = 48;
+  private static final int INDEX_ENTRY_SIZE = 16;
+
+  private BinaryDataset() {}
+
+  /** Tells whether the file starts with the magic number of this format. */
+  static boolean isBinary(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE) {
+        return false;
+      }
+      ByteBuffer head = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      channel.read(head, 0);
+      return head.getLong(0) == MAGIC;
+    }
+  }
+
+  static void write(TransactionDatabase database, Path path) throws IOException {
+    int numTransactions = database.size();
+    int numBlocks = (numTransactions + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    int[] items = database.items();
+    int[] utilities = database.utilities();
+    int[] offsets = database.offsets();
+    int[] tranUtility = database.tranUtilities();
+
+    try (FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer index =
+          ByteBuffer.allocate((numBlocks + 1) * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      long position = HEADER_SIZE + index.capacity();
+      VarintBuffer block = new VarintBuffer(1 << 20);
+
+      for (int b = 0; b < numBlocks; ++b) {
+        int first = b * BLOCK_SIZE;
+        int last = Integer.min(numTransactions, first + BLOCK_SIZE);
+        index.putLong(position).putLong(offsets[first]);
+        block.clear();
+        for (int t = first; t < last; ++t) {
+          block.putVarint(offsets[t + 1] - offsets[t]);
+          block.putVarint(tranUtility[t]);
+          int previous = 0;
+          for (int i = offsets[t]; i < offsets[t + 1]; ++i) {
+            int delta = items[i] - previous;
+            block.putVarint((delta << 1) ^ (delta >> 31));
+            previous = items[i];
+          }
+          for (int i = offsets[t]; i < offsets[t + 1]; ++i) block.putVarint(utilities[i]);
+        }
+        position += writeFully(channel, block.asByteBuffer(), position);
+      }
+      index.putLong(position).putLong(offsets[numTransactions]);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.putLong(MAGIC);
+      header.putInt(VERSION);
+      header.putInt(database.getMaxItemID());
+      header.putLong(database.getTotalUtility());
+      header.putInt(numTransactions);
+      header.putLong(database.getNumItems());
+      header.putInt(BLOCK_SIZE);
+      header.putInt(numBlocks);
+      header.clear();
+      index.flip();
+      writeFully(channel, header, 0);
+      writeFully(channel, index, HEADER_SIZE);
+    }
+  }
+
+  private static int writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    int written = 0;
+    while (buffer.hasRemaining()) {
+      written += channel.write(buffer, position + written);
+    }
+    return written;
+  }
+
+  /** The header and the block index of a binary data set. */
+  static final class Layout {
+    final int maxItemID;
+    final long totalUtility;
+    final int numTransactions;
+    final long numItems;
+    final int blockSize;
+    final int numBlocks;
+    // byte offset and first item of every block, followed by the end of the file and numItems
+    final long[] blockStart;
+    final long[] blockItem;
+
+    private Layout(ByteBuffer header, ByteBuffer index) {
+      maxItemID = header.getInt(12);
+      totalUtility = header.getLong(16);
+      numTransactions = header.getInt(24);
+      numItems = header.getLong(28);
+      blockSize = header.getInt(36);
+      numBlocks = header.getInt(40);
+      blockStart = new long[numBlocks + 1];
+      blockItem = new long[numBlocks + 1];
+      for (int b = 0; b <= numBlocks; ++b) {
+        blockStart[b] = index.getLong(b * INDEX_ENTRY_SIZE);
+        blockItem[b] = index.getLong(b * INDEX_ENTRY_SIZE + 8);
+      }
+    }
+
+    int firstTransaction(int block) {
+      return block * blockSize;
+    }
+
+    int blockTransactions(int block) {
+      return Integer.min(numTransactions - block * blockSize, blockSize);
+    }
+  }
+
+  static Layout layout(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(channel, header, 0);
+    if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+      throw new IOException("Not a binary data set of version " + VERSION);
+    }
+    int numBlocks = header.getInt(40);
+    ByteBuffer index =
+        ByteBuffer.allocate((numBlocks + 1) * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(channel, index, HEADER_SIZE);
+    return new Layout(header, index);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Truncated binary data set");
+      }
+    }
+  }
+
+  static TransactionDatabase read(Path path, ForkJoinPool pool) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      Layout layout = layout(channel);
+      long size = channel.size();
+      if (layout.numItems > Integer.MAX_VALUE - 8) {
+        throw new IOException("Too many items for one in-memory data set: " + layout.numItems);
+      }
+      // the whole file is mapped at once unless it is too large for a single mapping
+      ByteBuffer whole =
+          size <= Integer.MAX_VALUE
+              ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN)
+              : null;
+
+      int numTransactions = layout.numTransactions;
+      int[] items = new int[(int) layout.numItems];
+      int[] utilities = new int[(int) layout.numItems];
+      int[] offsets = new int[numTransactions + 1];
+      int[] tranUtility = new int[numTransactions];
+      int[] maxUtility = new int[numTransactions];
+
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for (int b = 0; b < layout.numBlocks; ++b) {
+        long start = layout.blockStart[b];
+        int itemOffset = (int) layout.blockItem[b];
+        int first = layout.firstTransaction(b);
+        int last = first + layout.blockTransactions(b);
+        ByteBuffer region = whole != null ? whole : mapBlock(channel, layout, b);
+        int base = whole != null ? (int) start : 0;
+        tasks.add(
+            () -> {
+              decode(
+                  region, base, first, last, itemOffset, items, utilities, offsets, tranUtility,
+                  maxUtility);
+              return null;
+            });
+      }
+
+      try {
+        for (Future<Void> future : pool.invokeAll(tasks)) future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        throw new IOException("Corrupted binary data set: " + path, e.getCause());
+      }
+      offsets[numTransactions] = (int) layout.numItems;
+
+      return new TransactionDatabase(
+          items, utilities, offsets, tranUtility, maxUtility, layout.maxItemID,
+          layout.totalUtility);
+    }
+  }
+
+  private static ByteBuffer mapBlock(FileChannel channel, Layout layout, int block)
+      throws IOException {
+    long start = layout.blockStart[block];
+    return channel
+        .map(FileChannel.MapMode.READ_ONLY, start, layout.blockStart[block + 1] - start)
+        .order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** Decodes a single block into a database of its own. */
+  static TransactionDatabase readBlock(FileChannel channel, Layout layout, int block)
+      throws IOException {
+    int numTransactions = layout.blockTransactions(block);
+    int numItems = (int) (layout.blockItem[block + 1] - layout.blockItem[block]);
+    int[] items = new int[numItems];
+    int[] utilities = new int[numItems];
+    int[] offsets = new int[numTransactions + 1];
+    int[] tranUtility = new int[numTransactions];
+    int[] maxUtility = new int[numTransactions];
+    decode(
+        mapBlock(channel, layout, block), 0, 0, numTransactions, 0, items, utilities, offsets,
+        tranUtility, maxUtility);
+    offsets[numTransactions] = numItems;
+
+    int maxItemID = 0;
+    long totalUtility = 0;
+    for (int item : items) maxItemID = Integer.max(maxItemID, item);
+    for (int utility : tranUtility) totalUtility += utility;
+    return new TransactionDatabase(
+        items, utilities, offsets, tranUtility, maxUtility, maxItemID, totalUtility);
+  }
+
+  // decodes the transactions from first to last starting at byte base of the buffer
+  private static void decode(
+      ByteBuffer buffer,
+      int base,
+      int first,
+      int last,
+      int itemOffset,
+      int[] items,
+      int[] utilities,
+      int[] offsets,
+      int[] tranUtility,
+      int[] maxUtility) {
+    int[] cursor = {base};
+    int position = itemOffset;
+    for (int t = first; t < last; ++t) {
+      offsets[t] = position;
+      int length = Varints.get(buffer, cursor);
+      tranUtility[t] = Varints.get(buffer, cursor);
+      int previous = 0;
+      for (int i = 0; i < length; ++i) {
+        int zigzag = Varints.get(buffer, cursor);
+        previous += (zigzag >>> 1) ^ -(zigzag & 1);
+        items[position + i] = previous;
+      }
+      int max = 0;
+      for (int i = 0; i < length; ++i) {
+        int utility = Varints.get(buffer, cursor);
+        utilities[position + i] = utility;
+        max = Integer.max(max, utility);
+      }
+      maxUtility[t] = max;
+      position += length;
+    }
+  }
+
+  // a growable byte array of unsigned LEB128 varints
+  private static final class VarintBuffer {
+    private byte[] bytes;
+    private int size;
+
+    VarintBuffer(int capacity) {
+      bytes = new byte[capacity];
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    void putVarint(int value) {
+      if (size + Varints.MAX_BYTES > bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      size = Varints.put(bytes, size, value);
+    }
+
+    ByteBuffer asByteBuffer() {
+      return ByteBuffer.wrap(bytes, 0, size);
+    }
+  }
+}
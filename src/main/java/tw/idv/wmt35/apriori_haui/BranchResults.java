@@ -0,0 +1,73 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The high and the pre-large itemsets found in one branch of a depth-first search, with the number
+ * of candidates counted there. The branches are mined in parallel, and their itemsets are put
+ * together in the order the levels of Apriori find them, so the engines give their maps in the same
+ * order.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class BranchResults {
+  private final double minSupCount;
+  private final Double preLargeCount;
+  final ItemsetMap highAUtilityItemsets = new ItemsetMap();
+  final ItemsetMap preLargeUtilityItemsets = new ItemsetMap();
+  int numCandidates;
+
+  BranchResults(double minSupCount, Double preLargeCount) {
+    this.minSupCount = minSupCount;
+    this.preLargeCount = preLargeCount;
+  }
+
+  /** Counts a candidate with the given utility and keeps it if it is high or pre-large. */
+  void add(int[] itemset, long tUtility) {
+    ++numCandidates;
+    double aUtility = (double) tUtility / (double) itemset.length;
+    if (aUtility >= minSupCount) {
+      highAUtilityItemsets.put(itemset, aUtility);
+    } else if (preLargeCount != null && aUtility >= preLargeCount) {
+      preLargeUtilityItemsets.put(itemset, aUtility);
+    }
+  }
+
+  /**
+   * Puts the itemsets of all branches into the maps, shorter itemsets first and lexicographically
+   * within a length, and gives the number of their candidates.
+   */
+  static int putInLevelOrder(
+      List<BranchResults> branches,
+      ItemsetMap highAUtilityItemsets,
+      ItemsetMap preLargeUtilityItemsets) {
+    int numCandidates = 0;
+    for (BranchResults branch : branches) numCandidates += branch.numCandidates;
+    putInLevelOrder(branches, true, highAUtilityItemsets);
+    putInLevelOrder(branches, false, preLargeUtilityItemsets);
+    return numCandidates;
+  }
+
+  private static void putInLevelOrder(List<BranchResults> branches, boolean high, ItemsetMap map) {
+    List<int[]> itemsets = new ArrayList<>();
+    List<Double> values = new ArrayList<>();
+    for (BranchResults branch : branches) {
+      ItemsetMap itemsetMap = high ? branch.highAUtilityItemsets : branch.preLargeUtilityItemsets;
+      for (int e = itemsetMap.first(); e >= 0; e = itemsetMap.next(e)) {
+        itemsets.add(itemsetMap.itemset(e));
+        values.add(itemsetMap.value(e));
+      }
+    }
+
+    Integer[] order = new Integer[itemsets.size()];
+    for (int i = 0; i < order.length; ++i) order[i] = i;
+    Arrays.sort(
+        order,
+        Comparator.<Integer>comparingInt(i -> itemsets.get(i).length)
+            .thenComparing((a, b) -> Arrays.compare(itemsets.get(a), itemsets.get(b))));
+    for (int i : order) map.put(itemsets.get(i), values.get(i));
+  }
+}
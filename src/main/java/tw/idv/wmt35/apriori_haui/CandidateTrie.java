@@ -0,0 +1,217 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A prefix tree over a set of itemsets. The children of every node are stored next to each other
+ * in ascending item order, so all the itemsets contained in a transaction are found by a single
+ * traversal which merges the children of a node with the rest of the transaction.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class CandidateTrie {
+  private static final int ROOT = 0;
+
+  /** It receives every itemset of the tree which is contained in a transaction. */
+  interface Visitor {
+    /**
+     * @param itemset the index of the itemset in the list the tree was built from
+     * @param utility the utility of the itemset in the transaction
+     * @param position the position of the last item of the itemset in the transaction
+     * @param gap the largest gap value of the positions before position which are not items of the
+     *     itemset, 0 when no gap values are given
+     */
+    void matched(int itemset, int utility, int position, int gap);
+  }
+
+  // the nodes are numbered in breadth first order, node 0 is the root
+  private final int[] nodeItem;
+  // the children of node v are the nodes from children[v] to children[v + 1]
+  private final int[] children;
+  // the index of the itemset ending at a node, -1 for inner nodes
+  private final int[] terminal;
+  private final int maxDepth;
+
+  /** Builds the tree of the given itemsets, each of them sorted in ascending order. */
+  CandidateTrie(List<int[]> itemsets) {
+    int numItemsets = itemsets.size();
+    Integer[] order = new Integer[numItemsets];
+    for (int i = 0; i < numItemsets; ++i) order[i] = i;
+    Arrays.sort(order, (a, b) -> compare(itemsets.get(a), itemsets.get(b)));
+
+    // insert the itemsets in lexicographic order into a first-child / next-sibling tree
+    int capacity = 16;
+    int[] item = new int[capacity];
+    int[] firstChild = new int[capacity];
+    int[] lastChild = new int[capacity];
+    int[] nextSibling = new int[capacity];
+    int[] end = new int[capacity];
+    Arrays.fill(firstChild, -1);
+    Arrays.fill(end, -1);
+    int numNodes = 1;
+    int depth = 0;
+    int[] path = new int[16];
+    int[] previous = new int[0];
+
+    for (int i : order) {
+      int[] itemset = itemsets.get(i);
+      depth = Integer.max(depth, itemset.length);
+      if (path.length <= itemset.length) {
+        path = Arrays.copyOf(path, itemset.length * 2);
+      }
+      int common = 0;
+      while (common < itemset.length
+          && common < previous.length
+          && itemset[common] == previous[common]) {
+        ++common;
+      }
+      if (common == itemset.length && common == previous.length) {
+        throw new IllegalArgumentException("Duplicated itemset " + Arrays.toString(itemset));
+      }
+
+      path[0] = ROOT;
+      int node = common == 0 ? ROOT : path[common];
+      for (int d = common; d < itemset.length; ++d) {
+        if (numNodes == capacity) {
+          capacity *= 2;
+          item = Arrays.copyOf(item, capacity);
+          firstChild = Arrays.copyOf(firstChild, capacity);
+          lastChild = Arrays.copyOf(lastChild, capacity);
+          nextSibling = Arrays.copyOf(nextSibling, capacity);
+          end = Arrays.copyOf(end, capacity);
+          Arrays.fill(firstChild, numNodes, capacity, -1);
+          Arrays.fill(end, numNodes, capacity, -1);
+        }
+        int child = numNodes++;
+        item[child] = itemset[d];
+        nextSibling[child] = -1;
+        if (firstChild[node] == -1) {
+          firstChild[node] = child;
+        } else {
+          nextSibling[lastChild[node]] = child;
+        }
+        lastChild[node] = child;
+        node = child;
+        path[d + 1] = node;
+      }
+      end[node] = i;
+      previous = itemset;
+    }
+
+    // renumber the nodes breadth first, so the children of every node are contiguous
+    nodeItem = new int[numNodes];
+    children = new int[numNodes + 1];
+    terminal = new int[numNodes];
+    int[] queue = new int[numNodes];
+    int head = 0;
+    int tail = 1;
+    queue[0] = ROOT;
+    while (head < numNodes) {
+      int node = queue[head];
+      nodeItem[head] = item[node];
+      terminal[head] = end[node];
+      children[head] = tail;
+      for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+        queue[tail++] = child;
+      }
+      ++head;
+    }
+    children[numNodes] = tail;
+    maxDepth = depth;
+  }
+
+  private static int compare(int[] one, int[] two) {
+    int length = Integer.min(one.length, two.length);
+    for (int i = 0; i < length; ++i) {
+      if (one[i] != two[i]) {
+        return one[i] < two[i] ? -1 : 1;
+      }
+    }
+    return Integer.compare(one.length, two.length);
+  }
+
+  int getNumNodes() {
+    return nodeItem.length;
+  }
+
+  int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /** Reports every itemset of the tree contained in the items from start to end. */
+  void match(int[] items, int[] utilities, int start, int end, Visitor visitor) {
+    match(items, utilities, start, end, null, visitor);
+  }
+
+  /**
+   * Reports every itemset of the tree contained in the items from start to end, together with the
+   * largest gap value among the other positions before its last item. The gap value of position p
+   * is gaps[p - start]. The values are carried down the tree while the transaction is merged, so
+   * they cost nothing per reported itemset.
+   */
+  void match(int[] items, int[] utilities, int start, int end, int[] gaps, Visitor visitor) {
+    match(ROOT, items, utilities, start, start, end, 0, 0, gaps, visitor);
+  }
+
+  private void match(
+      int node,
+      int[] items,
+      int[] utilities,
+      int start,
+      int position,
+      int end,
+      int utility,
+      int gap,
+      int[] gaps,
+      Visitor visitor) {
+    int i = children[node];
+    int last = children[node + 1];
+
+    while (i < last && position < end) {
+      int childItem = nodeItem[i];
+      int name = items[position];
+      if (childItem == name) {
+        int childUtility = utility + utilities[position];
+        if (terminal[i] >= 0) {
+          visitor.matched(terminal[i], childUtility, position, gap);
+        }
+        if (children[i] != children[i + 1]) {
+          match(
+              i, items, utilities, start, position + 1, end, childUtility, gap, gaps, visitor);
+        }
+        ++i;
+        // the item is not in the itemsets of the next children
+        if (gaps != null) {
+          gap = Integer.max(gap, gaps[position - start]);
+        }
+        ++position;
+      } else if (childItem < name) {
+        // skip the children which are not in the transaction, search when there are many
+        if (last - i > end - position) {
+          i = lowerBound(name, i + 1, last);
+        } else {
+          ++i;
+        }
+      } else {
+        if (gaps != null) {
+          gap = Integer.max(gap, gaps[position - start]);
+        }
+        ++position;
+      }
+    }
+  }
+
+  // the first child in [from, to) whose item is not less than name
+  private int lowerBound(int name, int from, int to) {
+    while (from < to) {
+      int middle = (from + to) >>> 1;
+      if (nodeItem[middle] < name) {
+        from = middle + 1;
+      } else {
+        to = middle;
+      }
+    }
+    return from;
+  }
+}
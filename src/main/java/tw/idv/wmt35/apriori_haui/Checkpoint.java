@@ -0,0 +1,298 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The state of the levelwise mining after a level, from which Apriori resumes a run which was cut
+ * off: the leads and the combined itemsets the next candidates are joined from, the reserved items,
+ * the transactions left for the next level and the itemsets found so far. The data set and the
+ * thresholds it was taken with are kept too, so that it is not resumed with others.
+ *
+ * <p>It is written as MAGIC, the settings, the level and its itemsets, whose items are varints of
+ * the first item and the deltas of the others, the words of the reserved items, and the related
+ * transactions in one of three kinds: their IDs in the loaded data set, the records of the
+ * projection they are in, or the words of the survivors of a stream. A checkpoint is written to a
+ * temporary file first and replaces the last one only once it is on disk.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class Checkpoint {
+  static final long MAGIC = 0x4841_5549_434B_5031L; // HAUICKP1
+  static final String FILE_NAME = "checkpoint.bin";
+  private static final String TEMP_FILE_NAME = "checkpoint.tmp";
+  private static final int BUFFER_SIZE = 1 << 16;
+  // the kinds of the related transactions
+  private static final byte RELATED_IDS = 0;
+  private static final byte PROJECTION = 1;
+  private static final byte SURVIVORS = 2;
+
+  // the data set and the settings
+  long numTransactions;
+  int maxItemID;
+  long totalUtility;
+  double minSupCount;
+  // NaN when no pre-large itemsets are kept
+  double preLargeCount;
+  boolean leadUpperbound;
+  boolean projection;
+  boolean streaming;
+
+  // the length of the itemsets of the last level mined
+  int level;
+  int totalCandidateCount;
+  List<int[]> leads;
+  List<int[]> combined;
+  BitSet reserved;
+  ItemsetMap highItemsets;
+  ItemsetMap preLargeItemsets;
+  // the related transactions are related[] of working, or of the loaded data set when working is
+  // null, and they are the survivors in streaming mode
+  TransactionDatabase working;
+  int[] related;
+  long[] survivors;
+
+  /** Tells whether the other checkpoint was taken of the same data set with the same settings. */
+  boolean sameSettings(Checkpoint other) {
+    return numTransactions == other.numTransactions
+        && maxItemID == other.maxItemID
+        && totalUtility == other.totalUtility
+        && Double.compare(minSupCount, other.minSupCount) == 0
+        && Double.compare(preLargeCount, other.preLargeCount) == 0
+        && leadUpperbound == other.leadUpperbound
+        && projection == other.projection
+        && streaming == other.streaming;
+  }
+
+  /** Writes the checkpoint into the directory, in place of the last one. */
+  void write(Path directory) throws IOException {
+    Path temp = directory.resolve(TEMP_FILE_NAME);
+    try (FileChannel channel =
+        FileChannel.open(
+            temp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+      out.writeLong(MAGIC);
+      out.writeLong(numTransactions);
+      out.writeInt(maxItemID);
+      out.writeLong(totalUtility);
+      out.writeDouble(minSupCount);
+      out.writeDouble(preLargeCount);
+      out.writeBoolean(leadUpperbound);
+      out.writeBoolean(projection);
+      out.writeBoolean(streaming);
+
+      out.writeInt(level);
+      out.writeInt(totalCandidateCount);
+      writeItemsets(out, leads);
+      writeItemsets(out, combined);
+      writeWords(out, reserved.toLongArray());
+      writeItemsets(out, highItemsets);
+      writeItemsets(out, preLargeItemsets);
+
+      if (survivors != null) {
+        out.writeByte(SURVIVORS);
+        writeWords(out, survivors);
+      } else if (working == null) {
+        out.writeByte(RELATED_IDS);
+        Varints.put(out, related.length);
+        for (int tid : related) Varints.put(out, tid);
+      } else {
+        out.writeByte(PROJECTION);
+        writeRecords(out);
+      }
+      out.flush();
+      // on disk before it replaces the last one
+      channel.force(true);
+    }
+    Files.move(
+        temp,
+        directory.resolve(FILE_NAME),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // the related records of working with their weights
+  private void writeRecords(DataOutput out) throws IOException {
+    int[] items = working.items();
+    int[] utilities = working.utilities();
+    int[] offsets = working.offsets();
+    int[] tranUtilities = working.tranUtilities();
+    int[] maxUtilities = working.maxUtilities();
+    int[] weights = working.weights();
+    int numItems = 0;
+    for (int tid : related) numItems += offsets[tid + 1] - offsets[tid];
+
+    Varints.put(out, related.length);
+    Varints.put(out, numItems);
+    for (int tid : related) {
+      Varints.put(out, offsets[tid + 1] - offsets[tid]);
+      Varints.put(out, tranUtilities[tid]);
+      Varints.put(out, maxUtilities[tid]);
+      Varints.put(out, weights[tid]);
+      int previous = 0;
+      for (int i = offsets[tid]; i < offsets[tid + 1]; ++i) {
+        Varints.put(out, items[i] - previous);
+        previous = items[i];
+        Varints.put(out, utilities[i]);
+      }
+    }
+  }
+
+  /** Reads a checkpoint file. */
+  static Checkpoint read(Path path) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+      if (in.readLong() != MAGIC) {
+        throw new IOException("Not a checkpoint file: " + path);
+      }
+      Checkpoint checkpoint = new Checkpoint();
+      checkpoint.numTransactions = in.readLong();
+      checkpoint.maxItemID = in.readInt();
+      checkpoint.totalUtility = in.readLong();
+      checkpoint.minSupCount = in.readDouble();
+      checkpoint.preLargeCount = in.readDouble();
+      checkpoint.leadUpperbound = in.readBoolean();
+      checkpoint.projection = in.readBoolean();
+      checkpoint.streaming = in.readBoolean();
+
+      checkpoint.level = in.readInt();
+      checkpoint.totalCandidateCount = in.readInt();
+      checkpoint.leads = readItemsets(in);
+      checkpoint.combined = readItemsets(in);
+      checkpoint.reserved = BitSet.valueOf(readWords(in));
+      checkpoint.highItemsets = readItemsetMap(in);
+      checkpoint.preLargeItemsets = readItemsetMap(in);
+
+      byte kind = in.readByte();
+      if (kind == SURVIVORS) {
+        checkpoint.survivors = readWords(in);
+      } else if (kind == RELATED_IDS) {
+        checkpoint.related = new int[Varints.get(in)];
+        for (int r = 0; r < checkpoint.related.length; ++r) checkpoint.related[r] = Varints.get(in);
+      } else {
+        checkpoint.readRecords(in);
+      }
+      return checkpoint;
+    }
+  }
+
+  // the records become a projection of their own, all of whose records are related
+  private void readRecords(DataInput in) throws IOException {
+    int numRecords = Varints.get(in);
+    int numItems = Varints.get(in);
+    int[] items = new int[numItems];
+    int[] utilities = new int[numItems];
+    int[] offsets = new int[numRecords + 1];
+    int[] tranUtilities = new int[numRecords];
+    int[] maxUtilities = new int[numRecords];
+    int[] weights = new int[numRecords];
+    int recordMaxItemID = 0;
+    long recordTotalUtility = 0;
+
+    int position = 0;
+    for (int t = 0; t < numRecords; ++t) {
+      int length = Varints.get(in);
+      tranUtilities[t] = Varints.get(in);
+      maxUtilities[t] = Varints.get(in);
+      weights[t] = Varints.get(in);
+      recordTotalUtility += tranUtilities[t];
+      int previous = 0;
+      for (int i = 0; i < length; ++i, ++position) {
+        previous += Varints.get(in);
+        items[position] = previous;
+        utilities[position] = Varints.get(in);
+      }
+      recordMaxItemID = Integer.max(recordMaxItemID, previous);
+      offsets[t + 1] = position;
+    }
+
+    working =
+        new TransactionDatabase(
+            items,
+            utilities,
+            offsets,
+            tranUtilities,
+            maxUtilities,
+            weights,
+            recordMaxItemID,
+            recordTotalUtility);
+    related = new int[numRecords];
+    for (int t = 0; t < numRecords; ++t) related[t] = t;
+  }
+
+  private static void writeItemsets(DataOutput out, List<int[]> itemsets) throws IOException {
+    Varints.put(out, itemsets.size());
+    for (int[] itemset : itemsets) writeItemset(out, itemset);
+  }
+
+  private static void writeItemsets(DataOutput out, ItemsetMap itemsets) throws IOException {
+    Varints.put(out, itemsets.size());
+    for (int e = itemsets.first(); e >= 0; e = itemsets.next(e)) {
+      writeItemset(out, itemsets.itemset(e));
+      out.writeDouble(itemsets.value(e));
+    }
+  }
+
+  private static void writeItemset(DataOutput out, int[] itemset) throws IOException {
+    Varints.put(out, itemset.length);
+    int previous = 0;
+    for (int item : itemset) {
+      Varints.put(out, item - previous);
+      previous = item;
+    }
+  }
+
+  private static List<int[]> readItemsets(DataInput in) throws IOException {
+    int size = Varints.get(in);
+    List<int[]> itemsets = new ArrayList<>(size);
+    for (int i = 0; i < size; ++i) itemsets.add(readItemset(in));
+    return itemsets;
+  }
+
+  private static ItemsetMap readItemsetMap(DataInput in) throws IOException {
+    int size = Varints.get(in);
+    ItemsetMap itemsets = new ItemsetMap();
+    for (int i = 0; i < size; ++i) itemsets.put(readItemset(in), in.readDouble());
+    return itemsets;
+  }
+
+  private static int[] readItemset(DataInput in) throws IOException {
+    int[] itemset = new int[Varints.get(in)];
+    int previous = 0;
+    for (int i = 0; i < itemset.length; ++i) {
+      previous += Varints.get(in);
+      itemset[i] = previous;
+    }
+    return itemset;
+  }
+
+  private static void writeWords(DataOutput out, long[] words) throws IOException {
+    Varints.put(out, words.length);
+    for (long word : words) out.writeLong(word);
+  }
+
+  private static long[] readWords(DataInput in) throws IOException {
+    long[] words = new long[Varints.get(in)];
+    for (int w = 0; w < words.length; ++w) words[w] = in.readLong();
+    return words;
+  }
+}
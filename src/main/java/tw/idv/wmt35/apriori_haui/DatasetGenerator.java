@@ -0,0 +1,320 @@
+package tw.idv.wmt35.apriori_haui;
+
+import static java.lang.System.exit;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import org.apache.commons.cli.*;
+
+/**
+ * It writes synthetic transaction data sets in the text format read by Apriori, one line of
+ * "items:transaction utility:utilities" per transaction.
+ *
+ * <p>The number of items in a transaction follows a Poisson distribution around the average
+ * length, and the items are drawn from a Zipf distribution whose exponent sets the skew: 0 gives
+ * uniform items, larger values make a few items frequent and most of them rare. The utility of an
+ * item in a transaction is its quantity, uniform from 1 to maxQuantity, times the unit profit of
+ * the item, which is drawn once per item from a uniform or a log-normal distribution.
+ *
+ * <p>The transactions are generated in chunks of CHUNK_SIZE with a seed of their own, in parallel
+ * and written in order, so a data set only depends on its parameters and not on the number of
+ * threads. With several batches the transactions are spread over that many files, to be mined one
+ * after another by the incremental mode of App.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+public final class DatasetGenerator {
+  static final int CHUNK_SIZE = 1 << 14;
+
+  private final long numTransactions;
+  private final int numItems;
+  private final double averageLength;
+  private final double skew;
+  private final int maxQuantity;
+  private final boolean logNormalProfit;
+  private final long seed;
+  // the cumulative probability of the items in ascending order
+  private final double[] itemCdf;
+  private final int[] unitProfit;
+  private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+  // the buffers of a transaction, one per thread
+  private final class Buffers {
+    final boolean[] taken = new boolean[numItems + 1];
+    int[] items = new int[64];
+    int[] utilities = new int[64];
+  }
+
+  public DatasetGenerator(
+      long numTransactions,
+      int numItems,
+      double averageLength,
+      double skew,
+      int maxQuantity,
+      boolean logNormalProfit,
+      long seed) {
+    if (numTransactions < 1 || numItems < 1 || averageLength < 1 || maxQuantity < 1) {
+      throw new IllegalArgumentException("Sizes of a data set should be at least 1");
+    }
+    if (averageLength > numItems / 2.0 && numItems > 1) {
+      throw new IllegalArgumentException("Average length should be at most half of the items");
+    }
+    this.numTransactions = numTransactions;
+    this.numItems = numItems;
+    this.averageLength = averageLength;
+    this.skew = skew;
+    this.maxQuantity = maxQuantity;
+    this.logNormalProfit = logNormalProfit;
+    this.seed = seed;
+
+    itemCdf = new double[numItems];
+    double sum = 0;
+    for (int i = 0; i < numItems; ++i) {
+      sum += 1.0 / Math.pow(i + 1, skew);
+      itemCdf[i] = sum;
+    }
+    for (int i = 0; i < numItems; ++i) itemCdf[i] /= sum;
+
+    Random random = new Random(seed);
+    unitProfit = new int[numItems + 1];
+    for (int item = 1; item <= numItems; ++item) {
+      unitProfit[item] =
+          logNormalProfit
+              ? (int) Long.min(1000, Math.round(Math.exp(1.0 + random.nextGaussian())))
+              : 1 + random.nextInt(10);
+      unitProfit[item] = Integer.max(unitProfit[item], 1);
+    }
+  }
+
+  /** Writes the data set into batches files named prefix_1.txt, prefix_2.txt and so on. */
+  public List<Path> write(Path prefix, int batches, ForkJoinPool pool) throws IOException {
+    List<Path> files = new ArrayList<>();
+    long first = 0;
+    for (int b = 0; b < batches; ++b) {
+      long last = numTransactions * (b + 1) / batches;
+      Path file =
+          batches == 1
+              ? prefix
+              : prefix.resolveSibling(prefix.getFileName() + "_" + (b + 1) + ".txt");
+      write(file, first, last, pool);
+      files.add(file);
+      first = last;
+    }
+    return files;
+  }
+
+  // writes the transactions from first to last, generating up to two chunks per thread ahead
+  private void write(Path file, long first, long last, ForkJoinPool pool) throws IOException {
+    ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    int window = 2 * pool.getParallelism();
+    long next = first;
+
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20)) {
+      while (next < last || !pending.isEmpty()) {
+        while (next < last && pending.size() < window) {
+          long start = next;
+          long end = Long.min(last, (start / CHUNK_SIZE + 1) * CHUNK_SIZE);
+          pending.add(pool.submit(() -> generate(start, end)));
+          next = end;
+        }
+        out.write(pending.remove().get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  // the lines of the transactions from start to end, which lie in a single chunk
+  private byte[] generate(long start, long end) {
+    Random random = new Random(seed * 0x9E3779B97F4A7C15L + start / CHUNK_SIZE);
+    for (long skip = start % CHUNK_SIZE; skip > 0; --skip) transaction(random, null);
+
+    TextBuffer text = new TextBuffer((int) (end - start) * (int) (averageLength * 8 + 8));
+    for (long t = start; t < end; ++t) transaction(random, text);
+    return text.toByteArray();
+  }
+
+  // draws one transaction and appends its line to text, or only draws it when text is null
+  private void transaction(Random random, TextBuffer text) {
+    Buffers buffer = buffers.get();
+    int length = Integer.min(numItems, 1 + poisson(random, averageLength - 1));
+    if (buffer.items.length < length) {
+      buffer.items = new int[length * 2];
+      buffer.utilities = new int[length * 2];
+    }
+    int[] items = buffer.items;
+    int[] utilities = buffer.utilities;
+
+    for (int i = 0; i < length; ++i) {
+      int item = drawItem(random);
+      // a skewed distribution keeps drawing the same items, fall back to uniform ones
+      for (int tries = 0; buffer.taken[item]; ++tries) {
+        item = tries < 16 ? drawItem(random) : 1 + random.nextInt(numItems);
+      }
+      buffer.taken[item] = true;
+      items[i] = item;
+    }
+    Arrays.sort(items, 0, length);
+
+    int tranUtility = 0;
+    for (int i = 0; i < length; ++i) {
+      buffer.taken[items[i]] = false;
+      utilities[i] = (1 + random.nextInt(maxQuantity)) * unitProfit[items[i]];
+      tranUtility += utilities[i];
+    }
+
+    if (text != null) {
+      for (int i = 0; i < length; ++i) {
+        text.append(items[i]).append(i + 1 < length ? ' ' : ':');
+      }
+      text.append(tranUtility).append(':');
+      for (int i = 0; i < length; ++i) {
+        text.append(utilities[i]).append(i + 1 < length ? ' ' : '\n');
+      }
+    }
+  }
+
+  private int drawItem(Random random) {
+    int index = Arrays.binarySearch(itemCdf, random.nextDouble());
+    return Integer.min(numItems, (index < 0 ? -index - 1 : index) + 1);
+  }
+
+  private static int poisson(Random random, double mean) {
+    if (mean <= 0) {
+      return 0;
+    }
+    if (mean > 30) {
+      return Integer.max(0, (int) Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+    }
+    double limit = Math.exp(-mean);
+    double product = random.nextDouble();
+    int count = 0;
+    while (product > limit) {
+      product *= random.nextDouble();
+      ++count;
+    }
+    return count;
+  }
+
+  // a growable byte array of ASCII text
+  private static final class TextBuffer {
+    private byte[] bytes;
+    private int size;
+
+    TextBuffer(int capacity) {
+      bytes = new byte[Integer.max(capacity, 64)];
+    }
+
+    TextBuffer append(char c) {
+      if (size == bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      bytes[size++] = (byte) c;
+      return this;
+    }
+
+    TextBuffer append(int value) {
+      if (size + 11 > bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      int start = size;
+      do {
+        bytes[size++] = (byte) ('0' + value % 10);
+        value /= 10;
+      } while (value > 0);
+      for (int i = start, j = size - 1; i < j; ++i, --j) {
+        byte b = bytes[i];
+        bytes[i] = bytes[j];
+        bytes[j] = b;
+      }
+      return this;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+  }
+
+  public static void main(String[] args) {
+    Options options = new Options();
+    options.addOption("h", false, "Lists Short Help");
+    options.addOption("o", true, "Output File (prefix of the batch files)");
+    options.addOption("n", true, "Number of Transactions");
+    options.addOption("i", true, "Number of Items (default 1000)");
+    options.addOption("l", true, "Average Transaction Length (default 10)");
+    options.addOption("z", true, "Zipf Exponent of the Items, 0 is uniform (default 1.0)");
+    options.addOption("q", true, "Maximal Quantity of an Item (default 5)");
+    options.addOption(
+        "u", true, "Unit Profit Distribution: uniform or lognormal (default uniform)");
+    options.addOption("b", true, "Number of Batch Files (default 1)");
+    options.addOption("s", true, "Random Seed (default 1)");
+    options.addOption("t", true, "Set Number of Threads");
+    HelpFormatter hf = new HelpFormatter();
+    hf.setWidth(150);
+
+    try {
+      CommandLine cmd = new DefaultParser().parse(options, args);
+      if (cmd.hasOption("h") || !cmd.hasOption("o") || !cmd.hasOption("n")) {
+        hf.printHelp("java -cp AprioriHaui.jar " + DatasetGenerator.class.getName(), options, true);
+        exit(cmd.hasOption("h") ? 0 : 1);
+      }
+
+      String profit = cmd.getOptionValue("u", "uniform");
+      if (!profit.equals("uniform") && !profit.equals("lognormal")) {
+        System.out.println("Unit Profit Distribution should be uniform or lognormal");
+        exit(1);
+      }
+      int threads =
+          Integer.parseInt(
+              cmd.getOptionValue("t", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+      DatasetGenerator generator =
+          new DatasetGenerator(
+              Long.parseLong(cmd.getOptionValue("n")),
+              Integer.parseInt(cmd.getOptionValue("i", "1000")),
+              Double.parseDouble(cmd.getOptionValue("l", "10")),
+              Double.parseDouble(cmd.getOptionValue("z", "1.0")),
+              Integer.parseInt(cmd.getOptionValue("q", "5")),
+              profit.equals("lognormal"),
+              Long.parseLong(cmd.getOptionValue("s", "1")));
+
+      long startTime = System.currentTimeMillis();
+      ForkJoinPool pool = new ForkJoinPool(Integer.max(threads, 1));
+      List<Path> files =
+          generator.write(
+              Paths.get(cmd.getOptionValue("o")),
+              Integer.parseInt(cmd.getOptionValue("b", "1")),
+              pool);
+      pool.shutdown();
+      long stopTime = System.currentTimeMillis();
+
+      for (Path file : files) {
+        System.out.println(
+            new StringBuilder(file.toString()).append(" : ").append(Files.size(file)).append("B"));
+      }
+      System.out.println(
+          new StringBuilder("Running Time: ").append(stopTime - startTime).append("ms"));
+    } catch (ParseException | IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      exit(1);
+    } catch (IOException e) {
+      e.printStackTrace();
+      exit(1);
+    }
+  }
+}
@@ -0,0 +1,352 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A depth-first engine which finds the itemsets of the levels of Apriori, but keeps only one
+ * branch of the search in memory. A lead itemset has a projected database: the transactions
+ * containing it, each with the utility of the lead there, the combined items after its last item,
+ * and the largest utility and the number of the other combined items before that item. One scan of
+ * the projected database counts all candidates extending the lead, and the database of a new lead
+ * is projected from it, so the memory grows with the depth of the search instead of the widest
+ * level.
+ *
+ * <p>The candidates and the pruning follow Apriori: a lead is extended by the last items of the
+ * combined itemsets with the same prefix and a larger last item, and the lead and the global upper
+ * bounds come from the items combined in the first level. The branches of the single items are
+ * mined in parallel, each thread holding the projected databases of one branch.
+ *
+ * <p>Like the vertical engine it does not check the other subsets of a candidate, so it can find
+ * pre-large itemsets which the levels of Apriori miss, see {@link UtilityListMiner}.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class DepthFirstMiner {
+  private final TransactionDatabase data;
+  private final double minSupCount;
+  private final Double preLargeCount;
+  private final double thresholdCount;
+  private final boolean leadUpperbound;
+  private final ForkJoinPool pool;
+  // the items combined in the first level
+  private boolean[] combined;
+  private int numCandidates;
+  // the position of every item among the candidates being counted plus 1, 0 if it is not one
+  private final ThreadLocal<int[]> slots;
+
+  DepthFirstMiner(
+      TransactionDatabase data,
+      double minSupCount,
+      Double preLargeCount,
+      double thresholdCount,
+      boolean leadUpperbound,
+      ForkJoinPool pool) {
+    this.data = data;
+    this.minSupCount = minSupCount;
+    this.preLargeCount = preLargeCount;
+    this.thresholdCount = thresholdCount;
+    this.leadUpperbound = leadUpperbound;
+    this.pool = pool;
+    slots = ThreadLocal.withInitial(() -> new int[data.getMaxItemID() + 1]);
+  }
+
+  // the transactions containing a lead, cut down to the combined items after its last item
+  private static final class Projection {
+    final int size;
+    final int[] offsets;
+    final int[] items;
+    final int[] utilities;
+    // the utility of the lead in every transaction, and the largest utility and the number of the
+    // other combined items before its last item
+    final int[] leadUtilities;
+    final int[] gapMax;
+    final int[] gapCount;
+
+    Projection(int size, int numItems) {
+      this.size = size;
+      offsets = new int[size + 1];
+      items = new int[numItems];
+      utilities = new int[numItems];
+      leadUtilities = new int[size];
+      gapMax = new int[size];
+      gapCount = new int[size];
+    }
+  }
+
+  /** The number of itemsets whose utility was counted, the single items included. */
+  int getNumCandidates() {
+    return numCandidates;
+  }
+
+  /** Mines the data set and puts the high and the pre-large itemsets into the maps. */
+  void mine(ItemsetMap highAUtilityItemsets, ItemsetMap preLargeUtilityItemsets) {
+    int maxItemID = data.getMaxItemID();
+    int[] items = data.items();
+    int[] utilities = data.utilities();
+    int[] offsets = data.offsets();
+    int[] maxUtilities = data.maxUtilities();
+
+    // find large-1 itemsets
+    long[] utility = new long[maxItemID + 1];
+    double[] mUtility = new double[maxItemID + 1];
+    for (int tid = 0; tid < data.size(); ++tid) {
+      for (int j = offsets[tid]; j < offsets[tid + 1]; ++j) {
+        utility[items[j]] += utilities[j];
+        mUtility[items[j]] += maxUtilities[tid];
+      }
+    }
+    numCandidates = maxItemID + 1;
+
+    combined = new boolean[maxItemID + 1];
+    int[] singles = new int[maxItemID];
+    int numSingles = 0;
+    for (int i = 1; i <= maxItemID; ++i) {
+      int[] itemset = {i};
+      if (utility[i] >= minSupCount) {
+        highAUtilityItemsets.put(itemset, utility[i]);
+      } else if (preLargeCount != null && utility[i] >= preLargeCount) {
+        preLargeUtilityItemsets.put(itemset, utility[i]);
+      }
+
+      if (mUtility[i] >= thresholdCount) {
+        combined[i] = true;
+        singles[numSingles++] = i;
+      }
+    }
+    if (numSingles < 2) {
+      return;
+    }
+
+    if (!data.hasItemIndex()) {
+      data.buildItemIndex();
+    }
+    singles = Arrays.copyOf(singles, numSingles);
+    BranchResults[] results = new BranchResults[numSingles];
+    pool.invoke(new BranchTask(singles, results, 0, numSingles));
+    numCandidates +=
+        BranchResults.putInLevelOrder(
+            Arrays.asList(results), highAUtilityItemsets, preLargeUtilityItemsets);
+  }
+
+  // mines the branches of the single items from low to high, one task per item
+  private final class BranchTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int[] singles;
+    private final BranchResults[] results;
+    private final int low;
+    private final int high;
+
+    BranchTask(int[] singles, BranchResults[] results, int low, int high) {
+      this.singles = singles;
+      this.results = results;
+      this.low = low;
+      this.high = high;
+    }
+
+    @Override
+    protected void compute() {
+      if (high - low == 1) {
+        results[low] = new BranchResults(minSupCount, preLargeCount);
+        // the single items are all leads, and combined with every larger one
+        int[] candidates = Arrays.copyOfRange(singles, low + 1, singles.length);
+        if (candidates.length > 0) {
+          extend(new int[] {singles[low]}, project(singles[low]), candidates, results[low]);
+        }
+        return;
+      }
+      int middle = (low + high) >>> 1;
+      invokeAll(
+          new BranchTask(singles, results, low, middle),
+          new BranchTask(singles, results, middle, high));
+    }
+  }
+
+  // counts the candidates extending lead by the items of candidates in its projected database, and
+  // mines the branches of the candidates which are leads too
+  private void extend(
+      int[] lead, Projection projection, int[] candidates, BranchResults results) {
+    int numExtensions = candidates.length;
+    int length = lead.length + 1;
+    long[] tUtility = new long[numExtensions];
+    double[] mUtility = new double[numExtensions];
+    double[] gMUtility = new double[numExtensions];
+    int[] slot = slots.get();
+    for (int s = 0; s < numExtensions; ++s) slot[candidates[s]] = s + 1;
+
+    int[] items = projection.items;
+    int[] utilities = projection.utilities;
+    for (int t = 0; t < projection.size; ++t) {
+      int start = projection.offsets[t];
+      int end = projection.offsets[t + 1];
+      // the two largest utilities after the lead, the other items of a candidate have one of them
+      int first = 0;
+      int numFirst = 0;
+      int second = 0;
+      for (int p = start; p < end; ++p) {
+        if (utilities[p] > first) {
+          second = first;
+          first = utilities[p];
+          numFirst = 1;
+        } else if (utilities[p] == first) {
+          ++numFirst;
+        } else if (utilities[p] > second) {
+          second = utilities[p];
+        }
+      }
+
+      int countOther = projection.gapCount[t] + end - start - 1;
+      int followMax = 0;
+      int followCount = 0;
+      for (int p = end - 1; p >= start; --p) {
+        int s = slot[items[p]] - 1;
+        if (s >= 0) {
+          int utility = projection.leadUtilities[t] + utilities[p];
+          tUtility[s] += utility;
+          if (followCount > 0) {
+            mUtility[s] += MaxFollow.upperbound(utility, length, followMax, followCount);
+          }
+          if (countOther > 0) {
+            int max = utilities[p] == first && numFirst == 1 ? second : first;
+            max = Integer.max(max, projection.gapMax[t]);
+            gMUtility[s] += MaxFollow.upperbound(utility, length, max, countOther);
+          }
+        }
+        followMax = Integer.max(followMax, utilities[p]);
+        ++followCount;
+      }
+    }
+    for (int s = 0; s < numExtensions; ++s) slot[candidates[s]] = 0;
+
+    // the candidates which are combined, to be joined with the leads before them
+    int[] combinedItems = new int[numExtensions];
+    int numCombined = 0;
+    int[][] itemsets = new int[numExtensions][];
+    for (int s = 0; s < numExtensions; ++s) {
+      itemsets[s] = Arrays.copyOf(lead, length);
+      itemsets[s][length - 1] = candidates[s];
+      results.add(itemsets[s], tUtility[s]);
+      if (gMUtility[s] >= thresholdCount) {
+        combinedItems[numCombined++] = candidates[s];
+      }
+    }
+
+    int next = 0;
+    for (int s = 0; s < numExtensions; ++s) {
+      while (next < numCombined && combinedItems[next] <= candidates[s]) ++next;
+      double leadBound = leadUpperbound ? mUtility[s] : gMUtility[s];
+      if (leadBound >= thresholdCount && next < numCombined) {
+        Projection branch = project(projection, candidates[s]);
+        if (branch.size > 0) {
+          extend(
+              itemsets[s],
+              branch,
+              Arrays.copyOfRange(combinedItems, next, numCombined),
+              results);
+        }
+      }
+    }
+  }
+
+  // the transactions of data containing item, with a combined item after it
+  private Projection project(int item) {
+    int[] items = data.items();
+    int[] utilities = data.utilities();
+    int[] offsets = data.offsets();
+    int[] itemStart = data.itemStarts();
+    int[] itemTransactions = data.itemTransactions();
+
+    int numPostings = itemStart[item + 1] - itemStart[item];
+    int[] positions = new int[numPostings];
+    int size = 0;
+    int numItems = 0;
+    for (int i = 0; i < numPostings; ++i) {
+      int tid = itemTransactions[itemStart[item] + i];
+      positions[i] = Arrays.binarySearch(items, offsets[tid], offsets[tid + 1], item);
+      int count = 0;
+      for (int p = positions[i] + 1; p < offsets[tid + 1]; ++p) {
+        if (combined[items[p]]) {
+          ++count;
+        }
+      }
+      if (count > 0) {
+        ++size;
+        numItems += count;
+      }
+    }
+
+    Projection projection = new Projection(size, numItems);
+    int t = 0;
+    int k = 0;
+    for (int i = 0; i < numPostings; ++i) {
+      int tid = itemTransactions[itemStart[item] + i];
+      int position = positions[i];
+      int from = k;
+      for (int p = position + 1; p < offsets[tid + 1]; ++p) {
+        if (combined[items[p]]) {
+          projection.items[k] = items[p];
+          projection.utilities[k] = utilities[p];
+          ++k;
+        }
+      }
+      if (k == from) {
+        continue;
+      }
+
+      int gapMax = 0;
+      int gapCount = 0;
+      for (int p = offsets[tid]; p < position; ++p) {
+        if (combined[items[p]]) {
+          gapMax = Integer.max(gapMax, utilities[p]);
+          ++gapCount;
+        }
+      }
+      projection.leadUtilities[t] = utilities[position];
+      projection.gapMax[t] = gapMax;
+      projection.gapCount[t] = gapCount;
+      projection.offsets[++t] = k;
+    }
+    return projection;
+  }
+
+  // the transactions of a projection containing item, with an item after it
+  private Projection project(Projection parent, int item) {
+    int[] positions = new int[parent.size];
+    int size = 0;
+    int numItems = 0;
+    for (int t = 0; t < parent.size; ++t) {
+      int end = parent.offsets[t + 1];
+      positions[t] = Arrays.binarySearch(parent.items, parent.offsets[t], end, item);
+      if (positions[t] >= 0 && positions[t] + 1 < end) {
+        ++size;
+        numItems += end - positions[t] - 1;
+      }
+    }
+
+    Projection projection = new Projection(size, numItems);
+    int n = 0;
+    for (int t = 0; t < parent.size; ++t) {
+      int position = positions[t];
+      int end = parent.offsets[t + 1];
+      if (position < 0 || position + 1 == end) {
+        continue;
+      }
+
+      int gapMax = parent.gapMax[t];
+      for (int p = parent.offsets[t]; p < position; ++p) {
+        gapMax = Integer.max(gapMax, parent.utilities[p]);
+      }
+      int from = projection.offsets[n];
+      System.arraycopy(parent.items, position + 1, projection.items, from, end - position - 1);
+      System.arraycopy(
+          parent.utilities, position + 1, projection.utilities, from, end - position - 1);
+      projection.leadUtilities[n] = parent.leadUtilities[t] + parent.utilities[position];
+      projection.gapMax[n] = gapMax;
+      projection.gapCount[n] = parent.gapCount[t] + position - parent.offsets[t];
+      projection.offsets[n + 1] = from + end - position - 1;
+      ++n;
+    }
+    return projection;
+  }
+}
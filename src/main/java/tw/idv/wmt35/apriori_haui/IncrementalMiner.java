@@ -0,0 +1,321 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * It maintains the high average utility itemsets of a growing transaction database with the
+ * pre-large concept. Every batch is mined on its own and merged into the kept results, and only
+ * the itemsets whose utility in the batch is unknown are rescanned in the batch. The batches seen
+ * so far are mined again only when the utility added since the last full mining may have turned
+ * an itemset which was not even pre-large into a large one.
+ *
+ * <p>Only the files of the batches are kept for that full mining, and they are loaded again when
+ * it is due, or streamed from disk again in streaming mode. A batch added as a database has no
+ * file, so its transactions are kept in memory for the life of the miner, and a miner which
+ * receives such batches without end runs out of memory.
+ *
+ * <p>With a state store the results and the counters are kept in a file after every batch, and a
+ * miner in a later run goes on from them and from the files of the earlier batches.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+public final class IncrementalMiner {
+  private final Apriori apriori;
+  private final double minSup;
+  private final double preLargeThreshold;
+  // the batches added as databases, which have no file to be loaded from again
+  private final TransactionDatabase history;
+  private final List<String> historyFiles;
+  private StateStore store;
+  private ItemsetMap highAUtilityItemsetsCount;
+  private ItemsetMap preLargeUtilityItemsetsCount;
+  private long totalUtility;
+  // the utility which can still be added before a full mining is needed
+  private long reScanRemainingUtility;
+  private int numBatches;
+  private long batchTransactions;
+  private long batchUtility;
+  private boolean reMined;
+  private int numReScan;
+  private int countReScan;
+
+  public IncrementalMiner(double minSup, double preLargeThreshold) {
+    this(new Apriori(), minSup, preLargeThreshold);
+  }
+
+  /** Mines the batches with the given miner, which keeps its own settings. */
+  IncrementalMiner(Apriori apriori, double minSup, double preLargeThreshold) {
+    this.apriori = apriori;
+    this.minSup = minSup;
+    // preLargeThreshold is less or equal to minSup
+    this.preLargeThreshold = Double.min(preLargeThreshold, minSup);
+    history = new TransactionDatabase();
+    historyFiles = new ArrayList<>();
+    highAUtilityItemsetsCount = new ItemsetMap();
+    preLargeUtilityItemsetsCount = new ItemsetMap();
+  }
+
+  public void setThreads(final int threads) {
+    apriori.setThreads(threads);
+  }
+
+  public void setLeadUpperbound(final boolean leadUpperbound) {
+    apriori.setLeadUpperbound(leadUpperbound);
+  }
+
+  public void setProjection(final boolean projection) {
+    apriori.setProjection(projection);
+  }
+
+  /**
+   * Goes on from the state in the store, and keeps the state in it after every batch added. The
+   * store has to be set before the first batch.
+   */
+  void setStateStore(StateStore store) {
+    store.checkSettings(minSup, preLargeThreshold);
+    this.store = store;
+    if (store.isEmpty()) {
+      return;
+    }
+    highAUtilityItemsetsCount = store.copyHighItemsets();
+    preLargeUtilityItemsetsCount = store.copyPreLargeItemsets();
+    totalUtility = store.getTotalUtility();
+    reScanRemainingUtility = store.getReScanRemainingUtility();
+    numBatches = store.getNumBatches();
+    countReScan = store.getCountReScan();
+    historyFiles.addAll(store.getBatchFiles());
+  }
+
+  /** Loads a data set file and adds its transactions as the next batch. */
+  public void addBatch(String inputFileName) {
+    if (apriori.getStreaming()) {
+      historyFiles.add(inputFileName);
+      apriori.readFile(inputFileName);
+      update(() -> apriori.readFile(historyFiles));
+    } else {
+      try {
+        add(apriori.load(inputFileName), inputFileName);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    if (store != null) {
+      try {
+        // a later run may be started in another directory
+        store.append(this, Paths.get(inputFileName).toAbsolutePath().toString());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Adds the transactions of a database as the next batch. They are kept in memory until the
+   * miner is dropped, so a long running miner adds its batches from files instead.
+   */
+  void addBatch(TransactionDatabase batch) {
+    add(batch, null);
+  }
+
+  // keeps the file of the batch, or the batch itself when it has none
+  private void add(TransactionDatabase batch, String inputFileName) {
+    // the batch is rescanned through its item index unless the batches are mined again
+    batch.buildItemIndex();
+    apriori.setDatabase(batch);
+    update(() -> apriori.setDatabase(loadAll(batch)));
+    if (inputFileName != null) {
+      historyFiles.add(inputFileName);
+    } else {
+      history.addAll(batch);
+    }
+  }
+
+  // the batches seen so far, the ones with a file loaded from it again
+  private TransactionDatabase loadAll(TransactionDatabase batch) {
+    TransactionDatabase all = new TransactionDatabase();
+    try {
+      for (String file : historyFiles) all.addAll(apriori.load(file));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    all.addAll(history);
+    all.addAll(batch);
+    return all;
+  }
+
+  // mines the batch loaded in apriori, loadAll loads all the batches seen so far instead
+  private void update(Runnable loadAll) {
+    batchTransactions = apriori.getNumTransactions();
+    batchUtility = apriori.getTotalUtility();
+    totalUtility += batchUtility;
+    ++numBatches;
+    numReScan = 0;
+    reMined = batchUtility >= reScanRemainingUtility;
+
+    if (reMined) {
+      if (numBatches > 1) {
+        loadAll.run();
+        totalUtility = apriori.getTotalUtility();
+      }
+      mine();
+      highAUtilityItemsetsCount = apriori.getHighAUtilityItemsetsCount();
+      preLargeUtilityItemsetsCount = apriori.getPreLargeUtilityItemsetsCount();
+      reScanRemainingUtility =
+          (long) Math.ceil(((minSup - preLargeThreshold) * totalUtility) / minSup);
+    } else {
+      mine();
+      merge(apriori.getHighAUtilityItemsetsCount(), apriori.getPreLargeUtilityItemsetsCount());
+      countReScan += numReScan;
+      reScanRemainingUtility -= batchUtility;
+    }
+  }
+
+  private void mine() {
+    apriori.setMinSup(minSup);
+    apriori.setPreLargeThreshold(preLargeThreshold);
+    apriori.run();
+  }
+
+  // merges the itemsets of the batch into the kept ones, and rescans the batch for the kept
+  // itemsets which are neither large nor pre-large in it
+  private void merge(ItemsetMap tempHigh, ItemsetMap tempPreLarge) {
+    double minSupCount = getMinSupCount();
+    double preLargeCount = getPreLargeCount();
+    ItemsetMap tempToPreLarge = new ItemsetMap();
+    ItemsetMap tempHToReScan = new ItemsetMap();
+    ItemsetMap tempPToReScan = new ItemsetMap();
+
+    for (int e = highAUtilityItemsetsCount.first();
+        e >= 0;
+        e = highAUtilityItemsetsCount.next(e)) {
+      double originalValue = highAUtilityItemsetsCount.value(e);
+      int h = tempHigh.indexOf(highAUtilityItemsetsCount, e);
+
+      if (h >= 0) {
+        highAUtilityItemsetsCount.setValue(e, originalValue + tempHigh.value(h));
+      } else {
+        int p = tempPreLarge.indexOf(highAUtilityItemsetsCount, e);
+
+        if (p >= 0) {
+          double value = tempPreLarge.value(p) + originalValue;
+
+          if (value >= minSupCount) {
+            highAUtilityItemsetsCount.setValue(e, value);
+          } else {
+            tempToPreLarge.put(highAUtilityItemsetsCount, e, value);
+            highAUtilityItemsetsCount.removeEntry(e);
+          }
+        } else {
+          tempHToReScan.put(highAUtilityItemsetsCount, e, originalValue);
+        }
+      }
+    }
+
+    for (int e = preLargeUtilityItemsetsCount.first();
+        e >= 0;
+        e = preLargeUtilityItemsetsCount.next(e)) {
+      double originalValue = preLargeUtilityItemsetsCount.value(e);
+      int h = tempHigh.indexOf(preLargeUtilityItemsetsCount, e);
+
+      if (h >= 0) {
+        double value = tempHigh.value(h) + originalValue;
+        if (value >= minSupCount) {
+          highAUtilityItemsetsCount.put(preLargeUtilityItemsetsCount, e, value);
+          preLargeUtilityItemsetsCount.removeEntry(e);
+        } else preLargeUtilityItemsetsCount.setValue(e, value);
+      } else {
+        int p = tempPreLarge.indexOf(preLargeUtilityItemsetsCount, e);
+        if (p >= 0) {
+          preLargeUtilityItemsetsCount.setValue(e, originalValue + tempPreLarge.value(p));
+        } else tempPToReScan.put(preLargeUtilityItemsetsCount, e, originalValue);
+      }
+    }
+
+    for (int e = tempToPreLarge.first(); e >= 0; e = tempToPreLarge.next(e))
+      preLargeUtilityItemsetsCount.put(tempToPreLarge, e, tempToPreLarge.value(e));
+
+    apriori.reScan(tempHToReScan, tempPToReScan);
+
+    for (int e = tempHToReScan.first(); e >= 0; e = tempHToReScan.next(e)) {
+      double value = tempHToReScan.value(e);
+      int h = highAUtilityItemsetsCount.indexOf(tempHToReScan, e);
+
+      if (value < minSupCount) {
+        highAUtilityItemsetsCount.removeEntry(h);
+        if (value >= preLargeCount) {
+          preLargeUtilityItemsetsCount.put(tempHToReScan, e, value);
+        }
+      } else highAUtilityItemsetsCount.setValue(h, value);
+    }
+
+    for (int e = tempPToReScan.first(); e >= 0; e = tempPToReScan.next(e)) {
+      double value = tempPToReScan.value(e);
+      int p = preLargeUtilityItemsetsCount.indexOf(tempPToReScan, e);
+
+      if (value < preLargeCount) preLargeUtilityItemsetsCount.removeEntry(p);
+      else preLargeUtilityItemsetsCount.setValue(p, value);
+    }
+
+    numReScan = tempHToReScan.size() + tempPToReScan.size();
+  }
+
+  /** The high average utility itemsets of all the batches added so far. */
+  public ItemsetMap currentHAUIs() {
+    return highAUtilityItemsetsCount;
+  }
+
+  /** The pre-large itemsets of all the batches added so far. */
+  public ItemsetMap currentPreLarge() {
+    return preLargeUtilityItemsetsCount;
+  }
+
+  public long getTotalUtility() {
+    return totalUtility;
+  }
+
+  public double getMinSupCount() {
+    return totalUtility * minSup;
+  }
+
+  public double getPreLargeCount() {
+    return totalUtility * preLargeThreshold;
+  }
+
+  /** The utility which can still be added before all the batches have to be mined again. */
+  public long getReScanRemainingUtility() {
+    return reScanRemainingUtility;
+  }
+
+  public int getNumBatches() {
+    return numBatches;
+  }
+
+  public long getBatchTransactions() {
+    return batchTransactions;
+  }
+
+  /** The total utility of the last batch. */
+  public long getBatchUtility() {
+    return batchUtility;
+  }
+
+  /** Tells whether the last batch was mined together with all the earlier ones. */
+  public boolean wasReMined() {
+    return reMined;
+  }
+
+  /** The number of itemsets rescanned for the last batch. */
+  public int getNumReScan() {
+    return numReScan;
+  }
+
+  /** The number of itemsets rescanned for all the batches. */
+  public int getCountReScan() {
+    return countReScan;
+  }
+}
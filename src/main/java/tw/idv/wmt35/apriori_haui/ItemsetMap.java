@@ -0,0 +1,288 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.util.Arrays;
+
+/**
+ * A map from itemsets to average utilities. The items of all keys are packed one after another in
+ * a single int array, the values are primitive doubles, and the keys are found through an open
+ * addressing table with linear probing, so neither a lookup nor an update allocates.
+ *
+ * <p>The entries are numbered in insertion order and are visited by
+ *
+ * <pre>
+ *   for (int e = map.first(); e &gt;= 0; e = map.next(e)) { ... map.value(e) ... }
+ * </pre>
+ *
+ * Entries can be updated and removed while they are visited, but not put.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+public final class ItemsetMap {
+  private static final int INITIAL_ENTRIES = 16;
+  private static final int INITIAL_ITEMS = 64;
+
+  private int[] pool;
+  private int poolSize;
+  // entry e holds the items from keyStart[e] to keyStart[e] + keyLength[e] of the pool, a removed
+  // entry has the length -1
+  private int[] keyStart;
+  private int[] keyLength;
+  private int[] keyHash;
+  private double[] values;
+  private int numEntries;
+  private int size;
+  // entry + 1 of every used slot, 0 for a free one
+  private int[] table;
+
+  public ItemsetMap() {
+    pool = new int[INITIAL_ITEMS];
+    keyStart = new int[INITIAL_ENTRIES];
+    keyLength = new int[INITIAL_ENTRIES];
+    keyHash = new int[INITIAL_ENTRIES];
+    values = new double[INITIAL_ENTRIES];
+    table = new int[INITIAL_ENTRIES * 2];
+  }
+
+  private static int hash(int[] items, int start, int length) {
+    int hash = 1;
+    for (int i = start; i < start + length; ++i) hash = 31 * hash + items[i];
+    return hash ^ (hash >>> 16);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  // the entry with the given items, or -1
+  private int find(int[] items, int start, int length, int hash) {
+    int mask = table.length - 1;
+    for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+      int e = table[slot] - 1;
+      if (keyHash[e] == hash && keyLength[e] == length && sameItems(e, items, start)) {
+        return e;
+      }
+    }
+    return -1;
+  }
+
+  private boolean sameItems(int e, int[] items, int start) {
+    int base = keyStart[e];
+    for (int i = 0; i < keyLength[e]; ++i) {
+      if (pool[base + i] != items[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** The entry of the itemset, or -1 when it is not in the map. */
+  public int indexOf(int[] itemset) {
+    return find(itemset, 0, itemset.length, hash(itemset, 0, itemset.length));
+  }
+
+  /** The entry whose itemset is the one of entry e of another map, or -1. */
+  public int indexOf(ItemsetMap other, int e) {
+    return find(other.pool, other.keyStart[e], other.keyLength[e], other.keyHash[e]);
+  }
+
+  public boolean containsKey(int[] itemset) {
+    return indexOf(itemset) >= 0;
+  }
+
+  public double getOrDefault(int[] itemset, double defaultValue) {
+    int e = indexOf(itemset);
+    return e < 0 ? defaultValue : values[e];
+  }
+
+  /** Maps the itemset to the value, the itemset is copied. */
+  public void put(int[] itemset, double value) {
+    put(itemset, 0, itemset.length, hash(itemset, 0, itemset.length), value);
+  }
+
+  /** Maps the itemset of entry e of another map to the value. */
+  public void put(ItemsetMap other, int e, double value) {
+    put(other.pool, other.keyStart[e], other.keyLength[e], other.keyHash[e], value);
+  }
+
+  private void put(int[] items, int start, int length, int hash, double value) {
+    int e = find(items, start, length, hash);
+    if (e >= 0) {
+      values[e] = value;
+      return;
+    }
+
+    if (numEntries == keyStart.length) {
+      if (size < numEntries / 2) {
+        compact();
+      } else {
+        int capacity = numEntries * 2;
+        keyStart = Arrays.copyOf(keyStart, capacity);
+        keyLength = Arrays.copyOf(keyLength, capacity);
+        keyHash = Arrays.copyOf(keyHash, capacity);
+        values = Arrays.copyOf(values, capacity);
+        rehash(capacity * 2);
+      }
+    }
+    if (poolSize + length > pool.length) {
+      pool = Arrays.copyOf(pool, Integer.max(poolSize + length, pool.length * 2));
+    }
+
+    e = numEntries++;
+    System.arraycopy(items, start, pool, poolSize, length);
+    keyStart[e] = poolSize;
+    keyLength[e] = length;
+    keyHash[e] = hash;
+    values[e] = value;
+    poolSize += length;
+    ++size;
+    insert(e);
+  }
+
+  /** A copy of the map, whose entries are numbered from 0 in the same order. */
+  public ItemsetMap copy() {
+    ItemsetMap copy = new ItemsetMap();
+    for (int e = first(); e >= 0; e = next(e)) copy.put(this, e, values[e]);
+    return copy;
+  }
+
+  /** Sets the value of an itemset which is in the map, and tells whether it was there. */
+  public boolean replace(int[] itemset, double value) {
+    int e = indexOf(itemset);
+    if (e < 0) {
+      return false;
+    }
+    values[e] = value;
+    return true;
+  }
+
+  /** Removes the itemset, and tells whether it was in the map. */
+  public boolean remove(int[] itemset) {
+    int e = indexOf(itemset);
+    if (e < 0) {
+      return false;
+    }
+    removeEntry(e);
+    return true;
+  }
+
+  /** Removes entry e, the other entries keep their numbers. */
+  public void removeEntry(int e) {
+    int mask = table.length - 1;
+    int slot = keyHash[e] & mask;
+    while (table[slot] != e + 1) slot = (slot + 1) & mask;
+
+    // shift back the following entries of the cluster which may not stay behind the hole
+    int hole = slot;
+    for (slot = (slot + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+      int home = keyHash[table[slot] - 1] & mask;
+      if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+        table[hole] = table[slot];
+        hole = slot;
+      }
+    }
+    table[hole] = 0;
+    keyLength[e] = -1;
+    --size;
+  }
+
+  private void insert(int e) {
+    int mask = table.length - 1;
+    int slot = keyHash[e] & mask;
+    while (table[slot] != 0) slot = (slot + 1) & mask;
+    table[slot] = e + 1;
+  }
+
+  private void rehash(int capacity) {
+    table = new int[capacity];
+    for (int e = 0; e < numEntries; ++e) {
+      if (keyLength[e] >= 0) {
+        insert(e);
+      }
+    }
+  }
+
+  // drops the removed entries and their items
+  private void compact() {
+    int live = 0;
+    int newPoolSize = 0;
+    for (int e = 0; e < numEntries; ++e) {
+      if (keyLength[e] < 0) {
+        continue;
+      }
+      System.arraycopy(pool, keyStart[e], pool, newPoolSize, keyLength[e]);
+      keyStart[live] = newPoolSize;
+      keyLength[live] = keyLength[e];
+      keyHash[live] = keyHash[e];
+      values[live] = values[e];
+      newPoolSize += keyLength[e];
+      ++live;
+    }
+    numEntries = live;
+    poolSize = newPoolSize;
+    rehash(table.length);
+  }
+
+  /** The first entry, or -1 when the map is empty. */
+  public int first() {
+    return next(-1);
+  }
+
+  /** The entry after e, or -1 after the last one. */
+  public int next(int e) {
+    for (++e; e < numEntries; ++e) {
+      if (keyLength[e] >= 0) {
+        return e;
+      }
+    }
+    return -1;
+  }
+
+  public int length(int e) {
+    return keyLength[e];
+  }
+
+  public int item(int e, int i) {
+    return pool[keyStart[e] + i];
+  }
+
+  /** A copy of the itemset of entry e. */
+  public int[] itemset(int e) {
+    return Arrays.copyOfRange(pool, keyStart[e], keyStart[e] + keyLength[e]);
+  }
+
+  public double value(int e) {
+    return values[e];
+  }
+
+  public void setValue(int e, double value) {
+    values[e] = value;
+  }
+
+  /** The itemset of entry e with its items separated by commas, for printing. */
+  public String keyString(int e) {
+    StringBuilder stringBuilder = new StringBuilder();
+    for (int i = 0; i < keyLength[e]; ++i) {
+      if (i > 0) {
+        stringBuilder.append(',');
+      }
+      stringBuilder.append(pool[keyStart[e] + i]);
+    }
+    return stringBuilder.toString();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder stringBuilder = new StringBuilder("{");
+    for (int e = first(); e >= 0; e = next(e)) {
+      if (stringBuilder.length() > 1) {
+        stringBuilder.append(", ");
+      }
+      stringBuilder.append(keyString(e)).append('=').append(values[e]);
+    }
+    return stringBuilder.append('}').toString();
+  }
+}
@@ -0,0 +1,60 @@
+package tw.idv.wmt35.apriori_haui;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event for every level mined by Apriori, with the metrics of LevelMetrics. It
+ * lasts from the generation of the candidates of the level until the next level is projected.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+@Name("tw.idv.wmt35.apriori_haui.Level")
+@Label("Apriori Level")
+@Category("Apriori HAUI")
+@Description("Candidates, pruning and cost of one level of the mining")
+final class LevelEvent extends jdk.jfr.Event {
+  @Label("Level")
+  @Description("Length of the candidates of the level")
+  int level;
+
+  @Label("Candidates")
+  long candidates;
+
+  @Label("Leads")
+  @Description("Candidates within the lead upper bound, extended in the next level")
+  long leads;
+
+  @Label("Combined")
+  @Description("Candidates within the global upper bound, joined with the leads")
+  long combined;
+
+  @Label("HAUIs")
+  long hauis;
+
+  @Label("PreLarges")
+  long preLarges;
+
+  @Label("Related Transactions")
+  @Description("Transactions or merged records left for the next level")
+  long relatedTransactions;
+
+  @Label("Partitions")
+  int partitions;
+
+  @Label("Generation Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long generationTime;
+
+  @Label("Scan Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long scanTime;
+
+  @Label("Allocated")
+  @DataAmount(DataAmount.BYTES)
+  long allocatedBytes;
+}
@@ -0,0 +1,113 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The metrics of one level mined by Apriori: how many candidates it counted, how many survived
+ * the lead and the global upper bounds, the itemsets it found, the transactions left for the next
+ * level, and what the candidate generation and the scan of the transactions cost. When a level is
+ * finished it is committed as a LevelEvent to Flight Recorder too.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class LevelMetrics {
+  /** The length of the candidates of the level. */
+  final int level;
+
+  long candidates;
+  long leads;
+  long combined;
+  long hauis;
+  long preLarges;
+  long relatedTransactions;
+  int partitions;
+  long generationNanos;
+  long scanNanos;
+  // the bytes allocated by all threads while the level was mined, -1 if the JVM does not tell
+  long allocatedBytes;
+  // the peak heap in use while the level was mined, in MB
+  double peakMemory;
+
+  private final LevelEvent event = new LevelEvent();
+  private final long startAllocated;
+
+  LevelMetrics(int level) {
+    this.level = level;
+    startAllocated = allocatedBytes();
+    event.begin();
+  }
+
+  /** Ends the level with the peak heap it used, and commits its event. */
+  void finish(double peakMemory) {
+    this.peakMemory = peakMemory;
+    long endAllocated = allocatedBytes();
+    allocatedBytes = startAllocated < 0 || endAllocated < 0 ? -1 : endAllocated - startAllocated;
+
+    event.end();
+    if (event.shouldCommit()) {
+      event.level = level;
+      event.candidates = candidates;
+      event.leads = leads;
+      event.combined = combined;
+      event.hauis = hauis;
+      event.preLarges = preLarges;
+      event.relatedTransactions = relatedTransactions;
+      event.partitions = partitions;
+      event.generationTime = generationNanos;
+      event.scanTime = scanNanos;
+      event.allocatedBytes = allocatedBytes;
+      event.commit();
+    }
+  }
+
+  // the bytes allocated by the live threads so far, the pool threads stay alive between levels
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+    if (!allocation.isThreadAllocatedMemorySupported()
+        || !allocation.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    long total = 0;
+    for (long bytes : allocation.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      if (bytes > 0) {
+        total += bytes;
+      }
+    }
+    return total;
+  }
+
+  /** The metrics as a JSON object. */
+  String toJson() {
+    return new StringBuilder("{\"level\":")
+        .append(level)
+        .append(",\"candidates\":")
+        .append(candidates)
+        .append(",\"leads\":")
+        .append(leads)
+        .append(",\"combined\":")
+        .append(combined)
+        .append(",\"hauis\":")
+        .append(hauis)
+        .append(",\"preLarges\":")
+        .append(preLarges)
+        .append(",\"relatedTransactions\":")
+        .append(relatedTransactions)
+        .append(",\"partitions\":")
+        .append(partitions)
+        .append(",\"generationMs\":")
+        .append(generationNanos / 1e6)
+        .append(",\"scanMs\":")
+        .append(scanNanos / 1e6)
+        .append(",\"allocatedBytes\":")
+        .append(allocatedBytes)
+        .append(",\"peakMemoryMB\":")
+        .append(peakMemory)
+        .append('}')
+        .toString();
+  }
+}
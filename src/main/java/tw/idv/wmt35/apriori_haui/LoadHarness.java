@@ -0,0 +1,212 @@
+package tw.idv.wmt35.apriori_haui;
+
+import static java.lang.System.exit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import org.apache.commons.cli.*;
+
+/**
+ * An end-to-end load test. For every size of a grid it generates a data set with
+ * DatasetGenerator, runs App on it as a child process for every threshold of the grid, and appends
+ * the running time, the peak memory and the number of candidates of every run to a CSV file.
+ *
+ * <p>The data sets are kept in the work directory and reused by later runs with the same
+ * parameters. Every run gets a JVM of its own, so the memory of one run does not leak into the
+ * next one.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+public final class LoadHarness {
+  static final String CSV_HEADER =
+      "transactions,items,averageLength,skew,batches,minSup,preLarge,exitCode,wallTimeMs,"
+          + "runningTimeMs,peakMemoryMB,candidates,hauis";
+
+  private LoadHarness() {}
+
+  // the figures App prints about one run
+  private static final class RunResult {
+    int exitCode;
+    long wallTime;
+    long runningTime = -1;
+    double peakMemory = -1;
+    long candidates;
+    long hauis = -1;
+  }
+
+  private static RunResult runApp(List<String> command) throws IOException, InterruptedException {
+    RunResult result = new RunResult();
+    long startTime = System.currentTimeMillis();
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("Running Time: ")) {
+          result.runningTime = Long.parseLong(line.replaceAll("[^0-9]", ""));
+        } else if (line.startsWith("Number of Candidates: ")) {
+          // one line per data set in the incremental mode
+          result.candidates += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+        } else if (line.startsWith("Number of HAUIs: ")) {
+          result.hauis = Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+        } else if (line.startsWith("The Maximum Memory Usage: ")) {
+          String value = line.substring(line.indexOf(':') + 1).replace("MB", "").trim();
+          result.peakMemory = Double.parseDouble(value);
+        }
+      }
+    }
+
+    result.exitCode = process.waitFor();
+    result.wallTime = System.currentTimeMillis() - startTime;
+    return result;
+  }
+
+  private static List<String> split(String values) {
+    List<String> list = new ArrayList<>();
+    for (String value : values.split(",")) {
+      if (!value.trim().isEmpty()) {
+        list.add(value.trim());
+      }
+    }
+    return list;
+  }
+
+  public static void main(String[] args) {
+    Options options = new Options();
+    options.addOption("h", false, "Lists Short Help");
+    options.addOption("n", true, "Numbers of Transactions, separated by commas");
+    options.addOption("m", true, "Minimal Utility Thresholds, separated by commas");
+    options.addOption("p", true, "PreLarge Threshold (needed with more than one batch)");
+    options.addOption("i", true, "Number of Items (default 1000)");
+    options.addOption("l", true, "Average Transaction Length (default 10)");
+    options.addOption("z", true, "Zipf Exponent of the Items (default 1.0)");
+    options.addOption("b", true, "Number of Batch Files (default 1)");
+    options.addOption("s", true, "Random Seed (default 1)");
+    options.addOption("d", true, "Work Directory for the Data Sets (default loadtest)");
+    options.addOption("o", true, "CSV Output File (default loadtest.csv)");
+    options.addOption("x", true, "Maximal Heap of a Run, like 8g");
+    options.addOption("a", true, "More Arguments of App, separated by spaces");
+    HelpFormatter hf = new HelpFormatter();
+    hf.setWidth(150);
+
+    try {
+      CommandLine cmd = new DefaultParser().parse(options, args);
+      if (cmd.hasOption("h") || !cmd.hasOption("n") || !cmd.hasOption("m")) {
+        hf.printHelp("java -cp AprioriHaui.jar " + LoadHarness.class.getName(), options, true);
+        exit(cmd.hasOption("h") ? 0 : 1);
+      }
+
+      int numItems = Integer.parseInt(cmd.getOptionValue("i", "1000"));
+      double averageLength = Double.parseDouble(cmd.getOptionValue("l", "10"));
+      double skew = Double.parseDouble(cmd.getOptionValue("z", "1.0"));
+      int batches = Integer.parseInt(cmd.getOptionValue("b", "1"));
+      long seed = Long.parseLong(cmd.getOptionValue("s", "1"));
+      if (batches > 1 && !cmd.hasOption("p")) {
+        System.out.println("Need to Setup PreLarge Threshold!!");
+        exit(1);
+      }
+      Path workDirectory = Paths.get(cmd.getOptionValue("d", "loadtest"));
+      Path csv = Paths.get(cmd.getOptionValue("o", "loadtest.csv"));
+      Files.createDirectories(workDirectory);
+
+      String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+      String classPath = System.getProperty("java.class.path");
+      boolean newFile = !Files.exists(csv) || Files.size(csv) == 0;
+
+      try (PrintWriter writer =
+          new PrintWriter(
+              Files.newBufferedWriter(
+                  csv, StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+        if (newFile) {
+          writer.println(CSV_HEADER);
+        }
+
+        for (String size : split(cmd.getOptionValue("n"))) {
+          long numTransactions = Long.parseLong(size);
+          String name =
+              String.format(
+                  "n%d_i%d_l%s_z%s_s%d", numTransactions, numItems, averageLength, skew, seed);
+          Path prefix = workDirectory.resolve(batches == 1 ? name + ".txt" : name);
+          List<Path> files = new ArrayList<>();
+          for (int b = 1; b <= batches; ++b) {
+            files.add(batches == 1 ? prefix : workDirectory.resolve(name + "_" + b + ".txt"));
+          }
+
+          if (!files.stream().allMatch(Files::exists)) {
+            System.out.println(new StringBuilder("Generating ").append(name).append("..."));
+            new DatasetGenerator(numTransactions, numItems, averageLength, skew, 5, false, seed)
+                .write(prefix, batches, ForkJoinPool.commonPool());
+          }
+
+          for (String minSup : split(cmd.getOptionValue("m"))) {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            if (cmd.hasOption("x")) {
+              command.add("-Xmx" + cmd.getOptionValue("x"));
+            }
+            command.add("-cp");
+            command.add(classPath);
+            command.add(App.class.getName());
+            command.add("-f");
+            command.add(files.stream().map(Path::toString).collect(Collectors.joining(",")));
+            command.add("-m");
+            command.add(minSup);
+            if (cmd.hasOption("p")) {
+              command.add("-p");
+              command.add(cmd.getOptionValue("p"));
+            }
+            if (cmd.hasOption("a")) {
+              for (String argument : cmd.getOptionValue("a").trim().split("\\s+")) {
+                command.add(argument);
+              }
+            }
+
+            System.out.println(
+                new StringBuilder("Running ").append(name).append(" at ").append(minSup));
+            RunResult result = runApp(command);
+            writer.println(
+                String.join(
+                    ",",
+                    String.valueOf(numTransactions),
+                    String.valueOf(numItems),
+                    String.valueOf(averageLength),
+                    String.valueOf(skew),
+                    String.valueOf(batches),
+                    minSup,
+                    cmd.getOptionValue("p", ""),
+                    String.valueOf(result.exitCode),
+                    String.valueOf(result.wallTime),
+                    String.valueOf(result.runningTime),
+                    String.valueOf(result.peakMemory),
+                    String.valueOf(result.candidates),
+                    String.valueOf(result.hauis)));
+            writer.flush();
+          }
+        }
+      }
+      System.out.println(new StringBuilder("Results: ").append(csv.toAbsolutePath()));
+    } catch (ParseException | IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      exit(1);
+    } catch (IOException e) {
+      e.printStackTrace();
+      exit(1);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      exit(1);
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * It loads a transaction file in the items:tranUtility:utilities format. The file is memory mapped,
+ * cut into chunks on line boundaries, and the chunks are parsed in parallel straight from the
+ * mapped bytes into primitive arrays.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class MappedDatasetReader {
+  private static final long MIN_CHUNK_SIZE = 1L << 20;
+  // a mapped region is addressed by int, keep every chunk far below 2GB
+  private static final long MAX_CHUNK_SIZE = 1L << 30;
+  private static final int CHUNKS_PER_THREAD = 4;
+  private static final int SEARCH_BUFFER_SIZE = 1 << 16;
+
+  private MappedDatasetReader() {}
+
+  static TransactionDatabase read(String inputFileName) throws IOException {
+    return read(Paths.get(inputFileName), ForkJoinPool.commonPool());
+  }
+
+  static TransactionDatabase read(Path path, ForkJoinPool pool) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return read(channel, 0, channel.size(), pool);
+    }
+  }
+
+  /** Parses the lines between the byte offsets start and end, which are line boundaries. */
+  static TransactionDatabase read(FileChannel channel, long start, long end, ForkJoinPool pool)
+      throws IOException {
+    long size = end - start;
+    long chunkSize = size / ((long) Integer.max(pool.getParallelism(), 1) * CHUNKS_PER_THREAD);
+    chunkSize = Long.min(MAX_CHUNK_SIZE, Long.max(MIN_CHUNK_SIZE, chunkSize));
+    long[] bounds = lineBounds(channel, start, end, chunkSize);
+    List<Callable<TransactionDatabase>> tasks = new ArrayList<>();
+    for (int i = 0; i + 1 < bounds.length; ++i) {
+      long chunkStart = bounds[i];
+      long length = bounds[i + 1] - chunkStart;
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, length);
+      tasks.add(() -> parse(buffer, chunkStart));
+    }
+
+    List<TransactionDatabase> parts = new ArrayList<>();
+    try {
+      for (Future<TransactionDatabase> future : pool.invokeAll(tasks)) {
+        parts.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+
+    if (parts.size() == 1) {
+      return parts.get(0);
+    }
+    long numTransactions = 0;
+    long numItems = 0;
+    for (TransactionDatabase part : parts) {
+      numTransactions += part.size();
+      numItems += part.getNumItems();
+    }
+    if (numItems > Integer.MAX_VALUE - 8) {
+      throw new IOException("Too many items for one in-memory data set: " + numItems);
+    }
+    if (numTransactions > Integer.MAX_VALUE - 8) {
+      throw new IOException(
+          "Too many transactions for one in-memory data set: " + numTransactions);
+    }
+    TransactionDatabase database = new TransactionDatabase((int) numTransactions, (int) numItems);
+    for (TransactionDatabase part : parts) database.addAll(part);
+    return database;
+  }
+
+  /**
+   * Cuts the bytes from start to end into pieces of about chunkSize bytes, each ending right after
+   * a newline. It returns the start of every piece followed by end.
+   */
+  static long[] lineBounds(FileChannel channel, long start, long end, long chunkSize)
+      throws IOException {
+    chunkSize = Long.min(chunkSize, MAX_CHUNK_SIZE);
+    List<Long> bounds = new ArrayList<>();
+    bounds.add(start);
+    ByteBuffer search = ByteBuffer.allocate(SEARCH_BUFFER_SIZE);
+    while (end - start > chunkSize) {
+      long position = start + chunkSize;
+      long next = -1;
+      while (next < 0 && position < end) {
+        search.clear();
+        int read = channel.read(search, position);
+        if (read <= 0) {
+          break;
+        }
+        for (int i = 0; i < read; ++i) {
+          if (search.get(i) == '\n') {
+            next = position + i + 1;
+            break;
+          }
+        }
+        position += read;
+      }
+      if (next < 0 || next >= end) {
+        break;
+      }
+      if (next - start > Integer.MAX_VALUE) {
+        throw new IOException("A line is too long near byte " + start);
+      }
+      bounds.add(next);
+      start = next;
+    }
+    bounds.add(end);
+
+    long[] result = new long[bounds.size()];
+    for (int i = 0; i < result.length; ++i) result[i] = bounds.get(i);
+    return result;
+  }
+
+  private static TransactionDatabase parse(ByteBuffer buffer, long base) throws IOException {
+    int limit = buffer.limit();
+    TransactionDatabase database = new TransactionDatabase(limit / 64 + 1, limit / 4 + 1);
+    int[] itemBuffer = new int[64];
+    int[] utilityBuffer = new int[64];
+    int numItems = 0;
+    int numUtilities = 0;
+    int tranUtility = 0;
+    // 0: items, 1: transaction utility, 2: utility values
+    int field = 0;
+    int value = 0;
+    boolean digits = false;
+    boolean empty = true;
+
+    for (int p = 0; p <= limit; ++p) {
+      byte b = p < limit ? buffer.get(p) : (byte) '\n';
+      if (b >= '0' && b <= '9') {
+        value = value * 10 + (b - '0');
+        digits = true;
+        empty = false;
+        continue;
+      }
+
+      if (digits) {
+        if (field == 0) {
+          if (numItems == itemBuffer.length) {
+            itemBuffer = Arrays.copyOf(itemBuffer, numItems * 2);
+            utilityBuffer = Arrays.copyOf(utilityBuffer, numItems * 2);
+          }
+          itemBuffer[numItems++] = value;
+        } else if (field == 1) {
+          tranUtility = value;
+        } else {
+          if (numUtilities == numItems) {
+            throw malformed(base + p);
+          }
+          utilityBuffer[numUtilities++] = value;
+        }
+        value = 0;
+        digits = false;
+      }
+
+      if (b == ':') {
+        if (++field > 2) {
+          throw malformed(base + p);
+        }
+        empty = false;
+      } else if (b == '\n') {
+        if (!empty) {
+          if (field != 2 || numUtilities != numItems) {
+            throw malformed(base + p);
+          }
+          database.add(itemBuffer, utilityBuffer, numItems, tranUtility);
+        }
+        numItems = 0;
+        numUtilities = 0;
+        tranUtility = 0;
+        field = 0;
+        empty = true;
+      } else if (b != ' ' && b != '\r' && b != '\t') {
+        throw malformed(base + p);
+      }
+    }
+
+    return database;
+  }
+
+  private static IOException malformed(long position) {
+    return new IOException("Malformed transaction near byte " + position);
+  }
+}
@@ -0,0 +1,94 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.util.BitSet;
+
+/**
+ * The other items a candidate can be extended with in one transaction: the reserved items up to
+ * maxKey which are not in the candidate. It gives the largest utility and the number of them in
+ * the whole transaction and after the last item of the candidate, which are the inputs of the
+ * upper bounds.
+ *
+ * <p>The suffix maxima and counts of a transaction are prepared once, and then every candidate
+ * matched in it is bounded in constant time without allocation. The items of a candidate are
+ * always reserved and not greater than maxKey, so they are left out by subtracting their number,
+ * and the largest utility before the last item of the candidate comes from the trie, which keeps
+ * the largest gap value of the positions it skips. One instance belongs to one thread.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class MaxFollow {
+  private final BitSet reserved;
+  private final int maxKey;
+  // the utility of every position of the transaction if it holds an other item, 0 if not
+  private int[] gaps = new int[64];
+  // the largest utility and the number of other items from every position on
+  private int[] suffixMax = new int[65];
+  private int[] suffixCount = new int[65];
+  private int start;
+
+  int max;
+  int maxFollow;
+  int countOther;
+  int countFollowOther;
+
+  MaxFollow(BitSet reserved, int maxKey) {
+    this.reserved = reserved;
+    this.maxKey = maxKey;
+  }
+
+  /** Prepares the bounds of the candidates in transaction tid of the database. */
+  void prepare(TransactionDatabase database, int tid) {
+    int[] items = database.items();
+    int[] utilities = database.utilities();
+    start = database.offsets()[tid];
+    int length = database.offsets()[tid + 1] - start;
+    if (gaps.length < length) {
+      gaps = new int[length * 2];
+      suffixMax = new int[length * 2 + 1];
+      suffixCount = new int[length * 2 + 1];
+    }
+
+    suffixMax[length] = 0;
+    suffixCount[length] = 0;
+    for (int p = length - 1; p >= 0; --p) {
+      int name = items[start + p];
+      if (name <= maxKey && reserved.get(name)) {
+        gaps[p] = utilities[start + p];
+        suffixMax[p] = Integer.max(suffixMax[p + 1], gaps[p]);
+        suffixCount[p] = suffixCount[p + 1] + 1;
+      } else {
+        gaps[p] = 0;
+        suffixMax[p] = suffixMax[p + 1];
+        suffixCount[p] = suffixCount[p + 1];
+      }
+    }
+  }
+
+  /** The gap values of the prepared transaction, to be given to the trie. */
+  int[] gaps() {
+    return gaps;
+  }
+
+  /**
+   * Finds the other items of a candidate of the given length, whose last item is at position and
+   * whose largest gap value is gap.
+   */
+  void check(int length, int position, int gap) {
+    int next = position + 1 - start;
+    countFollowOther = suffixCount[next];
+    maxFollow = suffixMax[next];
+    countOther = suffixCount[0] - length;
+    max = Integer.max(gap, maxFollow);
+  }
+
+  /**
+   * The largest average utility of the supersets of an itemset of the given utility and length in
+   * a transaction, whose count other items have a utility of at most max.
+   */
+  static double upperbound(int utility, int length, int max, int count) {
+    if (((double) utility / (double) length) >= max) {
+      return (double) (utility + max) / (double) (length + 1);
+    }
+    return (double) (utility + (long) count * max) / (double) (length + count);
+  }
+}
@@ -0,0 +1,37 @@
+package tw.idv.wmt35.apriori_haui;
+
+/**
+ * The ways Apriori can search the itemsets. All of them prune with the same upper bounds and find
+ * the same high average utility itemsets.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+enum MiningEngine {
+  /** Level by level, the candidates of a level are counted in one scan of the transactions. */
+  LEVEL_WISE("levelwise"),
+  /** Depth first over utility lists, which are intersected instead of scanning the transactions. */
+  VERTICAL("vertical"),
+  /** Depth first over projected transactions, only one branch of the search is kept in memory. */
+  DEPTH_FIRST("depthfirst");
+
+  private final String name;
+
+  MiningEngine(String name) {
+    this.name = name;
+  }
+
+  /** The engine with the given name, as it is written on the command line. */
+  static MiningEngine forName(String name) {
+    for (MiningEngine engine : values()) {
+      if (engine.name.equalsIgnoreCase(name.trim())) {
+        return engine;
+      }
+    }
+    throw new IllegalArgumentException("Unknown Mining Engine: " + name);
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,186 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Mines a data set in partitions, in the way of the Partition algorithm of Savasere et al. The
+ * transactions are split into parts of about the same number of items, and every part is mined by
+ * a worker process at the same thresholds, which scale with the utility of the part. An itemset
+ * whose average utility is below the scaled threshold in every part is below it in the whole data
+ * set, so the itemsets the workers find, high and pre-large, are all the candidates. The
+ * coordinator merges them and counts their exact utilities in one scan of the data set.
+ *
+ * <p>The coordinator and the workers talk through files in a work directory: the parts are
+ * written in the binary data set format, and every worker is App writing its itemsets to a binary
+ * itemsets file, with its output in a log next to it. Workers are started on this machine, but
+ * with the work directory on a shared file system they can run anywhere.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class PartitionMiner {
+  private final Apriori apriori;
+  private final int numPartitions;
+  private final Path workDirectory;
+  // the App options every worker is started with besides its files and thresholds
+  private final List<String> workerOptions;
+  private ItemsetMap highAUtilityItemsetsCount;
+  private ItemsetMap preLargeUtilityItemsetsCount;
+  private int numCandidates;
+  // the files written in the work directory
+  private final List<Path> workFiles = new ArrayList<>();
+
+  /**
+   * Mines the data set loaded into apriori, whose thresholds are set, in the given number of
+   * partitions.
+   */
+  PartitionMiner(
+      Apriori apriori, int numPartitions, Path workDirectory, List<String> workerOptions) {
+    this.apriori = apriori;
+    this.numPartitions = numPartitions;
+    this.workDirectory = workDirectory;
+    this.workerOptions = workerOptions;
+  }
+
+  ItemsetMap getHighAUtilityItemsetsCount() {
+    return highAUtilityItemsetsCount;
+  }
+
+  ItemsetMap getPreLargeUtilityItemsetsCount() {
+    return preLargeUtilityItemsetsCount;
+  }
+
+  /** The number of itemsets found by the workers, whose utilities were verified. */
+  int getNumCandidates() {
+    return numCandidates;
+  }
+
+  /** Mines at the given thresholds, the pre-large one is null when it is not used. */
+  void mine(double minSup, Double preLargeThreshold) throws IOException {
+    TransactionDatabase data = apriori.getDatabase();
+    if (data == null) {
+      throw new IllegalStateException("Partitioned mining needs the data set in memory");
+    }
+    Files.createDirectories(workDirectory);
+
+    // cut the transactions where the items reach every multiple of a part
+    int[] offsets = data.offsets();
+    List<Process> workers = new ArrayList<>();
+    List<Path> resultFiles = new ArrayList<>();
+    List<Path> logFiles = new ArrayList<>();
+    try {
+      int from = 0;
+      for (int p = 0; p < numPartitions; ++p) {
+        long target = (long) data.getNumItems() * (p + 1) / numPartitions;
+        int to = from;
+        while (to < data.size() && offsets[to + 1] <= target) ++to;
+        if (p == numPartitions - 1) {
+          to = data.size();
+        }
+        if (to == from) {
+          continue;
+        }
+
+        Path dataFile = workDirectory.resolve("partition-" + p + ".bin");
+        Path resultFile = workDirectory.resolve("partition-" + p + ".result");
+        Path logFile = workDirectory.resolve("partition-" + p + ".log");
+        workFiles.addAll(List.of(dataFile, resultFile, logFile));
+        BinaryDataset.write(data.range(from, to), dataFile);
+        workers.add(startWorker(dataFile, resultFile, logFile, minSup, preLargeThreshold));
+        resultFiles.add(resultFile);
+        logFiles.add(logFile);
+        from = to;
+      }
+
+      for (int w = 0; w < workers.size(); ++w) {
+        if (workers.get(w).waitFor() != 0) {
+          throw new IllegalStateException("Partition worker failed, see " + logFiles.get(w));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the partition workers", e);
+    } finally {
+      // no worker outlives a failure
+      for (Process worker : workers) {
+        if (worker.isAlive()) {
+          worker.destroyForcibly();
+        }
+      }
+    }
+
+    // the union of the local itemsets, every one of them once
+    ItemsetMap candidates = new ItemsetMap();
+    List<int[]> itemsets = new ArrayList<>();
+    for (Path resultFile : resultFiles) {
+      ResultSink.read(
+          resultFile,
+          (itemset, aUtility, high) -> {
+            if (!candidates.containsKey(itemset)) {
+              candidates.put(itemset, 0);
+              itemsets.add(itemset);
+            }
+          });
+    }
+
+    // verification scan, the thresholds of apriori are the ones of the whole data set
+    long[] tUtilities = apriori.countUtilities(itemsets);
+    BranchResults results =
+        new BranchResults(
+            apriori.getMinSupCount(),
+            preLargeThreshold != null ? apriori.getPreLargeCount() : null);
+    for (int i = 0; i < itemsets.size(); ++i) results.add(itemsets.get(i), tUtilities[i]);
+    highAUtilityItemsetsCount = new ItemsetMap();
+    preLargeUtilityItemsetsCount = new ItemsetMap();
+    numCandidates =
+        BranchResults.putInLevelOrder(
+            Collections.singletonList(results),
+            highAUtilityItemsetsCount,
+            preLargeUtilityItemsetsCount);
+  }
+
+  /** Deletes the files of the partitions, and the work directory when nothing else is in it. */
+  void deleteWorkFiles() throws IOException {
+    for (Path file : workFiles) Files.deleteIfExists(file);
+    workFiles.clear();
+    try (DirectoryStream<Path> rest = Files.newDirectoryStream(workDirectory)) {
+      if (!rest.iterator().hasNext()) {
+        Files.delete(workDirectory);
+      }
+    }
+  }
+
+  // starts App on a partition in a new JVM with the class path of this one
+  private Process startWorker(
+      Path dataFile, Path resultFile, Path logFile, double minSup, Double preLargeThreshold)
+      throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(App.class.getName());
+    command.add("-f");
+    command.add(dataFile.toString());
+    command.add("-m");
+    command.add(String.valueOf(minSup));
+    if (preLargeThreshold != null) {
+      command.add("-p");
+      command.add(String.valueOf(preLargeThreshold));
+    }
+    command.add("-o");
+    command.add(resultFile.toString());
+    command.add("-of");
+    command.add(ResultSink.Format.BINARY.toString());
+    command.addAll(workerOptions);
+    return new ProcessBuilder(command)
+        .redirectErrorStream(true)
+        .redirectOutput(logFile.toFile())
+        .start();
+  }
+}
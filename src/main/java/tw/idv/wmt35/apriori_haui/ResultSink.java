@@ -0,0 +1,231 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the high and the pre-large itemsets to a file while they are mined, so they do not have
+ * to stay on the heap until the end of a run. Apriori hands every itemset over as soon as it is
+ * found and flushes the sink after every level.
+ *
+ * <p>In CSV every line holds the items separated by spaces, the average utility and whether the
+ * itemset is high or pre-large. In a threshold sweep a high itemset also holds the highest
+ * threshold it reaches. The binary form starts with MAGIC, and every itemset follows as a byte
+ * which is 0 for a high and 1 for a pre-large itemset, the number of items and the first item
+ * followed by the deltas of the others as varints, and the average utility as a little-endian
+ * double, from which the threshold of a sweep follows.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class ResultSink implements Closeable {
+  static final long MAGIC = 0x4841_5549_5245_5331L; // HAUIRES1
+  private static final int BUFFER_SIZE = 1 << 16;
+  // the bytes of a record besides its items: the kind, the varint of the length and the double
+  private static final int FIXED_RECORD_SIZE = 1 + Varints.MAX_BYTES + 8;
+
+  /** The formats of the file. */
+  enum Format {
+    CSV("csv"),
+    BINARY("binary");
+
+    private final String name;
+
+    Format(String name) {
+      this.name = name;
+    }
+
+    /** The format with the given name, as it is written on the command line. */
+    static Format forName(String name) {
+      for (Format format : values()) {
+        if (format.name.equalsIgnoreCase(name.trim())) {
+          return format;
+        }
+      }
+      throw new IllegalArgumentException("Unknown Result Format: " + name);
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /** It receives the itemsets read from a binary file. */
+  interface Visitor {
+    void itemset(int[] itemset, double aUtility, boolean high);
+  }
+
+  private final Format format;
+  private final FileChannel channel;
+  private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private long numHigh;
+  private long numPreLarge;
+  private ThresholdSweep sweep;
+  private boolean headerWritten;
+
+  ResultSink(Path path, Format format) throws IOException {
+    this.format = format;
+    channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    if (format == Format.BINARY) {
+      buffer.putLong(MAGIC);
+      headerWritten = true;
+    }
+  }
+
+  /** Tags the high itemsets of a CSV file with the highest threshold of the sweep they reach. */
+  void setThresholdSweep(ThresholdSweep sweep) {
+    if (headerWritten && format == Format.CSV) {
+      throw new IllegalStateException("The sweep has to be set before the first itemset");
+    }
+    this.sweep = sweep;
+  }
+
+  // the CSV header waits for a sweep, which adds a column
+  private void putHeader() {
+    if (!headerWritten) {
+      headerWritten = true;
+      putAscii("itemset,average_utility,kind" + (sweep != null ? ",threshold\n" : "\n"));
+    }
+  }
+
+  Format getFormat() {
+    return format;
+  }
+
+  long getNumHigh() {
+    return numHigh;
+  }
+
+  long getNumPreLarge() {
+    return numPreLarge;
+  }
+
+  /** Writes a high average utility itemset. */
+  void high(int[] itemset, double aUtility) {
+    ++numHigh;
+    write(itemset, aUtility, true);
+  }
+
+  /** Writes a pre-large itemset. */
+  void preLarge(int[] itemset, double aUtility) {
+    ++numPreLarge;
+    write(itemset, aUtility, false);
+  }
+
+  /** Writes the itemsets of a map, as high or as pre-large ones. */
+  void writeAll(ItemsetMap itemsets, boolean high) {
+    for (int e = itemsets.first(); e >= 0; e = itemsets.next(e)) {
+      if (high) {
+        high(itemsets.itemset(e), itemsets.value(e));
+      } else {
+        preLarge(itemsets.itemset(e), itemsets.value(e));
+      }
+    }
+  }
+
+  private void write(int[] itemset, double aUtility, boolean high) {
+    if (format == Format.BINARY) {
+      reserve(FIXED_RECORD_SIZE + Varints.MAX_BYTES * itemset.length);
+      buffer.put((byte) (high ? 0 : 1));
+      Varints.put(buffer, itemset.length);
+      int previous = 0;
+      for (int item : itemset) {
+        Varints.put(buffer, item - previous);
+        previous = item;
+      }
+      buffer.putDouble(aUtility);
+      return;
+    }
+
+    putHeader();
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < itemset.length; ++i) {
+      if (i > 0) {
+        line.append(' ');
+      }
+      line.append(itemset[i]);
+    }
+    line.append(',').append(aUtility).append(high ? ",high" : ",prelarge");
+    if (sweep != null) {
+      line.append(',');
+      if (high) {
+        line.append(sweep.minSup(sweep.highest(aUtility)));
+      }
+    }
+    putAscii(line.append('\n'));
+  }
+
+  private void putAscii(CharSequence text) {
+    reserve(text.length());
+    for (int i = 0; i < text.length(); ++i) buffer.put((byte) text.charAt(i));
+  }
+
+  // makes room for size bytes, writing the buffer out when it is full
+  private void reserve(int size) {
+    if (buffer.remaining() >= size) {
+      return;
+    }
+    drain();
+    if (buffer.capacity() < size) {
+      buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+  }
+
+  private void drain() {
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    buffer.clear();
+  }
+
+  /** Writes out what is buffered, at the end of every level. */
+  void flush() {
+    drain();
+  }
+
+  /** Reads the itemsets of a file written in the binary format, in the order they were written. */
+  static void read(Path path, Visitor visitor) throws IOException {
+    ByteBuffer bytes =
+        ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+    if (bytes.remaining() < 8 || bytes.getLong() != MAGIC) {
+      throw new IOException("Not a binary itemsets file: " + path);
+    }
+    while (bytes.hasRemaining()) {
+      boolean high = bytes.get() == 0;
+      int[] itemset = new int[Varints.get(bytes)];
+      int previous = 0;
+      for (int i = 0; i < itemset.length; ++i) {
+        previous += Varints.get(bytes);
+        itemset[i] = previous;
+      }
+      visitor.itemset(itemset, bytes.getDouble(), high);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      putHeader();
+      drain();
+    } finally {
+      channel.close();
+    }
+  }
+}
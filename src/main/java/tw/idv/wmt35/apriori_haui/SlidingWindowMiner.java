@@ -0,0 +1,267 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * It maintains the high average utility itemsets of the last batches of a stream, a window of a
+ * fixed number of batches. Every batch is mined on its own at the pre-large threshold, and the
+ * utility of every kept itemset is kept per batch, so when a batch leaves the window its part is
+ * subtracted and nothing has to be mined again.
+ *
+ * <p>An itemset which is high or pre-large in the window is at least pre-large in one of its
+ * batches, so the itemsets found by the batches of the window are all it needs to keep. An itemset
+ * is kept while a batch which found it is in the window, and its utility in every other batch of
+ * the window is known: a new batch is rescanned for the kept itemsets it did not find, and the
+ * itemsets it finds first are rescanned in the rest of the window. When a batch expires, the
+ * itemsets which may cross a threshold are the kept ones, whose utilities in the remaining window
+ * are exact already.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+public final class SlidingWindowMiner {
+  private final Apriori apriori;
+  private final double minSup;
+  private final double preLargeThreshold;
+  private final int windowSize;
+  // the batches of the window, the oldest first
+  private final ArrayDeque<Batch> window = new ArrayDeque<>();
+  // the number of batches of the window which found every kept itemset
+  private final ItemsetMap keptItemsets = new ItemsetMap();
+  private ItemsetMap highAUtilityItemsetsCount = new ItemsetMap();
+  private ItemsetMap preLargeUtilityItemsetsCount = new ItemsetMap();
+  private long totalUtility;
+  private int numBatches;
+  private int numExpired;
+  private long batchTransactions;
+  private long batchUtility;
+  private long batchCandidates;
+  private int numReScan;
+  private int countReScan;
+
+  // a batch of the window with the utility of every kept itemset in it
+  private static final class Batch {
+    final TransactionDatabase data;
+    final long utility;
+    // the exact utilities, not the averages, so that the sums are exact
+    final ItemsetMap tUtilities = new ItemsetMap();
+    // the itemsets high or pre-large in the batch alone
+    final List<int[]> found = new ArrayList<>();
+
+    Batch(TransactionDatabase data, long utility) {
+      this.data = data;
+      this.utility = utility;
+    }
+  }
+
+  public SlidingWindowMiner(double minSup, double preLargeThreshold, int windowSize) {
+    this(new Apriori(), minSup, preLargeThreshold, windowSize);
+  }
+
+  /** Mines the batches with the given miner, which keeps its own settings. */
+  SlidingWindowMiner(Apriori apriori, double minSup, double preLargeThreshold, int windowSize) {
+    if (windowSize < 1) {
+      throw new IllegalArgumentException("The window needs at least one batch");
+    }
+    this.apriori = apriori;
+    this.minSup = minSup;
+    // preLargeThreshold is less or equal to minSup
+    this.preLargeThreshold = Double.min(preLargeThreshold, minSup);
+    this.windowSize = windowSize;
+  }
+
+  public void setThreads(final int threads) {
+    apriori.setThreads(threads);
+  }
+
+  public void setLeadUpperbound(final boolean leadUpperbound) {
+    apriori.setLeadUpperbound(leadUpperbound);
+  }
+
+  public void setProjection(final boolean projection) {
+    apriori.setProjection(projection);
+  }
+
+  /** Loads a data set file and adds its transactions as the next batch. */
+  public void addBatch(String inputFileName) {
+    try {
+      addBatch(apriori.load(inputFileName));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Adds the transactions of a database as the next batch, the oldest one leaves a full window. */
+  void addBatch(TransactionDatabase data) {
+    // the oldest batch leaves first, so the new itemsets are not rescanned in it
+    if (window.size() == windowSize) {
+      expire();
+    }
+
+    apriori.setDatabase(data);
+    apriori.setMinSup(minSup);
+    apriori.setPreLargeThreshold(preLargeThreshold);
+    apriori.run();
+    batchTransactions = apriori.getNumTransactions();
+    batchUtility = apriori.getTotalUtility();
+    batchCandidates = apriori.getTotalCandidateCount();
+    ++numBatches;
+
+    Batch batch = new Batch(data, batchUtility);
+    List<int[]> firstFound = new ArrayList<>();
+    for (ItemsetMap map :
+        List.of(
+            apriori.getHighAUtilityItemsetsCount(), apriori.getPreLargeUtilityItemsetsCount())) {
+      for (int e = map.first(); e >= 0; e = map.next(e)) {
+        int[] itemset = map.itemset(e);
+        // the average utility times the length gives the exact utility back
+        batch.tUtilities.put(itemset, Math.round(map.value(e) * itemset.length));
+        batch.found.add(itemset);
+        if (!keptItemsets.containsKey(itemset)) {
+          firstFound.add(itemset);
+        }
+      }
+    }
+
+    // the kept itemsets the batch did not find, in the batch, which is still loaded
+    List<int[]> notFound = new ArrayList<>();
+    for (int e = keptItemsets.first(); e >= 0; e = keptItemsets.next(e)) {
+      if (batch.tUtilities.indexOf(keptItemsets, e) < 0) {
+        notFound.add(keptItemsets.itemset(e));
+      }
+    }
+    long[] tUtilities = apriori.countUtilities(notFound);
+    for (int i = 0; i < tUtilities.length; ++i) {
+      batch.tUtilities.put(notFound.get(i), tUtilities[i]);
+    }
+
+    // the itemsets found first, in the rest of the window
+    for (Batch other : window) {
+      if (firstFound.isEmpty()) {
+        break;
+      }
+      apriori.setDatabase(other.data);
+      tUtilities = apriori.countUtilities(firstFound);
+      for (int i = 0; i < tUtilities.length; ++i) {
+        other.tUtilities.put(firstFound.get(i), tUtilities[i]);
+      }
+    }
+
+    numReScan = notFound.size() + (window.isEmpty() ? 0 : firstFound.size());
+    for (int[] itemset : batch.found) {
+      keptItemsets.put(itemset, keptItemsets.getOrDefault(itemset, 0) + 1);
+    }
+    window.addLast(batch);
+    totalUtility += batchUtility;
+    countReScan += numReScan;
+    classify();
+  }
+
+  // subtracts the oldest batch and forgets the itemsets no batch of the window found
+  private void expire() {
+    Batch oldest = window.removeFirst();
+    totalUtility -= oldest.utility;
+    ++numExpired;
+    for (int[] itemset : oldest.found) {
+      int e = keptItemsets.indexOf(itemset);
+      if (keptItemsets.value(e) > 1) {
+        keptItemsets.setValue(e, keptItemsets.value(e) - 1);
+        continue;
+      }
+      keptItemsets.removeEntry(e);
+      for (Batch batch : window) batch.tUtilities.remove(itemset);
+    }
+  }
+
+  // sorts the kept itemsets into high and pre-large by their utilities in the window
+  private void classify() {
+    BranchResults results = new BranchResults(getMinSupCount(), getPreLargeCount());
+    for (int e = keptItemsets.first(); e >= 0; e = keptItemsets.next(e)) {
+      long tUtility = 0;
+      for (Batch batch : window) {
+        tUtility += (long) batch.tUtilities.value(batch.tUtilities.indexOf(keptItemsets, e));
+      }
+      results.add(keptItemsets.itemset(e), tUtility);
+    }
+    highAUtilityItemsetsCount = new ItemsetMap();
+    preLargeUtilityItemsetsCount = new ItemsetMap();
+    BranchResults.putInLevelOrder(
+        Collections.singletonList(results),
+        highAUtilityItemsetsCount,
+        preLargeUtilityItemsetsCount);
+  }
+
+  /** The high average utility itemsets of the batches in the window. */
+  public ItemsetMap currentHAUIs() {
+    return highAUtilityItemsetsCount;
+  }
+
+  /** The pre-large itemsets of the batches in the window. */
+  public ItemsetMap currentPreLarge() {
+    return preLargeUtilityItemsetsCount;
+  }
+
+  /** The total utility of the batches in the window. */
+  public long getTotalUtility() {
+    return totalUtility;
+  }
+
+  public double getMinSupCount() {
+    return totalUtility * minSup;
+  }
+
+  public double getPreLargeCount() {
+    return totalUtility * preLargeThreshold;
+  }
+
+  public int getWindowSize() {
+    return windowSize;
+  }
+
+  /** The number of batches in the window. */
+  public int getNumWindowBatches() {
+    return window.size();
+  }
+
+  public int getNumBatches() {
+    return numBatches;
+  }
+
+  /** The number of batches which left the window. */
+  public int getNumExpired() {
+    return numExpired;
+  }
+
+  /** The number of itemsets kept for the window, high, pre-large or found by one of its batches. */
+  public int getNumKept() {
+    return keptItemsets.size();
+  }
+
+  public long getBatchTransactions() {
+    return batchTransactions;
+  }
+
+  /** The total utility of the last batch. */
+  public long getBatchUtility() {
+    return batchUtility;
+  }
+
+  /** The number of candidates of mining the last batch. */
+  public long getBatchCandidates() {
+    return batchCandidates;
+  }
+
+  /** The number of itemsets rescanned for the last batch. */
+  public int getNumReScan() {
+    return numReScan;
+  }
+
+  /** The number of itemsets rescanned for all the batches. */
+  public int getCountReScan() {
+    return countReScan;
+  }
+}
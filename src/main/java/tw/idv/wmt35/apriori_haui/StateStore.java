@@ -0,0 +1,379 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The state of an IncrementalMiner in a local file, so that a later run goes on from it with the
+ * next batch only. The file is a log to which every batch appends what it changed: the counters of
+ * the miner, the file of the batch, and the itemsets put into or removed from the high and the
+ * pre-large maps. When the log holds COMPACTION_FACTOR times more itemsets than the maps, or the
+ * batches were mined again, it is compacted into one record of the whole state, which is written
+ * to a temporary file and moved over the log.
+ *
+ * <p>The log starts with MAGIC, and every record is the length of its operations, the operations,
+ * and their CRC-32. A record is forced to disk before its batch is taken as added. A record cut
+ * off by a crash fails its length or its checksum, and the log is truncated to the records before
+ * it, so its batch is added again by the next run.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class StateStore implements Closeable {
+  static final long MAGIC = 0x4841_5549_5354_4131L; // HAUISTA1
+  private static final int COMPACTION_FACTOR = 2;
+  // the log is not compacted before it holds this many itemsets
+  private static final int MIN_COMPACTION = 1024;
+  // the operations of a record
+  private static final byte SETTINGS = 0;
+  private static final byte COUNTERS = 1;
+  private static final byte BATCH = 2;
+  private static final byte PUT_HIGH = 3;
+  private static final byte PUT_PRE_LARGE = 4;
+  private static final byte REMOVE_HIGH = 5;
+  private static final byte REMOVE_PRE_LARGE = 6;
+
+  private final Path path;
+  private FileChannel channel;
+  // the state as it is in the log, NaN thresholds before the first batch
+  private double minSup = Double.NaN;
+  private double preLargeThreshold = Double.NaN;
+  private long totalUtility;
+  private long reScanRemainingUtility;
+  private int numBatches;
+  private int countReScan;
+  private final List<String> batchFiles = new ArrayList<>();
+  private ItemsetMap highItemsets = new ItemsetMap();
+  private ItemsetMap preLargeItemsets = new ItemsetMap();
+  // the itemsets put or removed in the log
+  private long numLogged;
+  private int numCompactions;
+
+  /** Opens the log of the file, which is created when it does not exist, and reads its state. */
+  StateStore(Path path) throws IOException {
+    this.path = path;
+    long end = Long.BYTES;
+    if (Files.exists(path) && Files.size(path) > 0) {
+      end = replay(ByteBuffer.wrap(Files.readAllBytes(path)));
+    } else {
+      ByteBuffer header = ByteBuffer.allocate(Long.BYTES).putLong(MAGIC);
+      header.flip();
+      try (FileChannel created =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        writeFully(created, header);
+        created.force(true);
+      }
+    }
+    channel = FileChannel.open(path, StandardOpenOption.WRITE);
+    // drops a record cut off by a crash
+    channel.truncate(end);
+    channel.position(end);
+  }
+
+  // applies the complete records of the log, and gives the end of the last one
+  private long replay(ByteBuffer log) throws IOException {
+    if (log.remaining() < Long.BYTES || log.getLong() != MAGIC) {
+      throw new IOException("Not a state file: " + path);
+    }
+    CRC32 crc = new CRC32();
+    while (log.remaining() >= Integer.BYTES) {
+      int start = log.position();
+      int length = log.getInt();
+      if (length < 0 || log.remaining() < length + Integer.BYTES) {
+        log.position(start);
+        break;
+      }
+      ByteBuffer record = log.slice();
+      record.limit(length);
+      crc.reset();
+      crc.update(record.duplicate());
+      log.position(log.position() + length);
+      if (log.getInt() != (int) crc.getValue()) {
+        log.position(start);
+        break;
+      }
+      apply(record);
+    }
+    return log.position();
+  }
+
+  private void apply(ByteBuffer record) {
+    while (record.hasRemaining()) {
+      byte operation = record.get();
+      switch (operation) {
+        case SETTINGS:
+          minSup = record.getDouble();
+          preLargeThreshold = record.getDouble();
+          break;
+        case COUNTERS:
+          totalUtility = record.getLong();
+          reScanRemainingUtility = record.getLong();
+          numBatches = record.getInt();
+          countReScan = record.getInt();
+          break;
+        case BATCH:
+          byte[] name = new byte[Varints.get(record)];
+          record.get(name);
+          batchFiles.add(new String(name, StandardCharsets.UTF_8));
+          break;
+        case PUT_HIGH:
+        case PUT_PRE_LARGE:
+          ItemsetMap map = operation == PUT_HIGH ? highItemsets : preLargeItemsets;
+          int[] itemset = getItemset(record);
+          double value = record.getDouble();
+          if (!map.replace(itemset, value)) {
+            map.put(itemset, value);
+          }
+          ++numLogged;
+          break;
+        case REMOVE_HIGH:
+          highItemsets.remove(getItemset(record));
+          ++numLogged;
+          break;
+        case REMOVE_PRE_LARGE:
+          preLargeItemsets.remove(getItemset(record));
+          ++numLogged;
+          break;
+        default:
+          throw new IllegalStateException("Unknown operation " + operation + " in " + path);
+      }
+    }
+  }
+
+  /**
+   * Takes the thresholds of the miner for a new state, and checks that a state read from the log
+   * was kept with the same ones.
+   */
+  void checkSettings(double minSup, double preLargeThreshold) {
+    if (isEmpty()) {
+      this.minSup = minSup;
+      this.preLargeThreshold = preLargeThreshold;
+    } else if (Double.compare(minSup, this.minSup) != 0
+        || Double.compare(preLargeThreshold, this.preLargeThreshold) != 0) {
+      throw new IllegalStateException(
+          "The State File "
+              + path
+              + " was kept at the Minimal Support "
+              + this.minSup
+              + " and the PreLarge Threshold "
+              + this.preLargeThreshold);
+    }
+  }
+
+  /** Appends the changes of the batch just added to the miner, and compacts the log when due. */
+  void append(IncrementalMiner miner, String batchFile) throws IOException {
+    batchFiles.add(batchFile);
+    totalUtility = miner.getTotalUtility();
+    reScanRemainingUtility = miner.getReScanRemainingUtility();
+    numBatches = miner.getNumBatches();
+    countReScan = miner.getCountReScan();
+
+    // a mining of all the batches, as of the first one, changes most itemsets, so the whole state
+    // is written instead
+    if (miner.wasReMined()) {
+      highItemsets = miner.currentHAUIs().copy();
+      preLargeItemsets = miner.currentPreLarge().copy();
+      compact();
+      return;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    writeCounters(out);
+    writeBatch(out, batchFile);
+    logChanges(out, miner.currentHAUIs(), highItemsets, PUT_HIGH, REMOVE_HIGH);
+    logChanges(out, miner.currentPreLarge(), preLargeItemsets, PUT_PRE_LARGE, REMOVE_PRE_LARGE);
+    out.flush();
+    writeRecord(channel, bytes.toByteArray());
+    channel.force(true);
+
+    if (numLogged > COMPACTION_FACTOR * Long.max(size(), MIN_COMPACTION)) {
+      compact();
+    }
+  }
+
+  // writes the itemsets of current which differ from the logged ones, and updates them
+  private void logChanges(
+      DataOutputStream out, ItemsetMap current, ItemsetMap logged, byte put, byte remove)
+      throws IOException {
+    for (int e = current.first(); e >= 0; e = current.next(e)) {
+      int l = logged.indexOf(current, e);
+      if (l >= 0 && logged.value(l) == current.value(e)) {
+        continue;
+      }
+      if (l >= 0) {
+        logged.setValue(l, current.value(e));
+      } else {
+        logged.put(current, e, current.value(e));
+      }
+      out.writeByte(put);
+      writeItemset(out, current.itemset(e));
+      out.writeDouble(current.value(e));
+      ++numLogged;
+    }
+    for (int l = logged.first(); l >= 0; l = logged.next(l)) {
+      if (current.indexOf(logged, l) < 0) {
+        out.writeByte(remove);
+        writeItemset(out, logged.itemset(l));
+        logged.removeEntry(l);
+        ++numLogged;
+      }
+    }
+  }
+
+  /** Rewrites the log as a single record of the whole state. */
+  void compact() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(SETTINGS);
+    out.writeDouble(minSup);
+    out.writeDouble(preLargeThreshold);
+    writeCounters(out);
+    for (String batchFile : batchFiles) writeBatch(out, batchFile);
+    for (ItemsetMap map : List.of(highItemsets, preLargeItemsets)) {
+      for (int e = map.first(); e >= 0; e = map.next(e)) {
+        out.writeByte(map == highItemsets ? PUT_HIGH : PUT_PRE_LARGE);
+        writeItemset(out, map.itemset(e));
+        out.writeDouble(map.value(e));
+      }
+    }
+    out.flush();
+
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel compacted =
+        FileChannel.open(
+            temp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(Long.BYTES).putLong(MAGIC);
+      header.flip();
+      writeFully(compacted, header);
+      writeRecord(compacted, bytes.toByteArray());
+      compacted.force(true);
+    }
+    channel.close();
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    channel = FileChannel.open(path, StandardOpenOption.WRITE);
+    channel.position(channel.size());
+    numLogged = size();
+    ++numCompactions;
+  }
+
+  private void writeCounters(DataOutputStream out) throws IOException {
+    out.writeByte(COUNTERS);
+    out.writeLong(totalUtility);
+    out.writeLong(reScanRemainingUtility);
+    out.writeInt(numBatches);
+    out.writeInt(countReScan);
+  }
+
+  private static void writeBatch(DataOutputStream out, String batchFile) throws IOException {
+    byte[] name = batchFile.getBytes(StandardCharsets.UTF_8);
+    out.writeByte(BATCH);
+    Varints.put(out, name.length);
+    out.write(name);
+  }
+
+  // the length, the operations and their checksum
+  private static void writeRecord(FileChannel channel, byte[] operations) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(operations);
+    ByteBuffer record = ByteBuffer.allocate(operations.length + 2 * Integer.BYTES);
+    record.putInt(operations.length).put(operations).putInt((int) crc.getValue());
+    record.flip();
+    writeFully(channel, record);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static void writeItemset(DataOutputStream out, int[] itemset) throws IOException {
+    Varints.put(out, itemset.length);
+    int previous = 0;
+    for (int item : itemset) {
+      Varints.put(out, item - previous);
+      previous = item;
+    }
+  }
+
+  private static int[] getItemset(ByteBuffer record) {
+    int[] itemset = new int[Varints.get(record)];
+    int previous = 0;
+    for (int i = 0; i < itemset.length; ++i) {
+      previous += Varints.get(record);
+      itemset[i] = previous;
+    }
+    return itemset;
+  }
+
+  /** Tells whether no batch is in the state yet. */
+  boolean isEmpty() {
+    return numBatches == 0;
+  }
+
+  // the itemsets in the maps
+  private long size() {
+    return highItemsets.size() + (long) preLargeItemsets.size();
+  }
+
+  long getTotalUtility() {
+    return totalUtility;
+  }
+
+  long getReScanRemainingUtility() {
+    return reScanRemainingUtility;
+  }
+
+  int getNumBatches() {
+    return numBatches;
+  }
+
+  int getCountReScan() {
+    return countReScan;
+  }
+
+  /** The files of the batches in the state, in the order they were added. */
+  List<String> getBatchFiles() {
+    return Collections.unmodifiableList(batchFiles);
+  }
+
+  /** A copy of the high average utility itemsets in the state. */
+  ItemsetMap copyHighItemsets() {
+    return highItemsets.copy();
+  }
+
+  /** A copy of the pre-large itemsets in the state. */
+  ItemsetMap copyPreLargeItemsets() {
+    return preLargeItemsets.copy();
+  }
+
+  /** The number of times the log was compacted since it was opened. */
+  int getNumCompactions() {
+    return numCompactions;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
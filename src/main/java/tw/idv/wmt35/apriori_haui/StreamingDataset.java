@@ -0,0 +1,158 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A data set which stays on disk and is read one block at a time, so only a single block has to
+ * fit in memory. A text file is cut into blocks of about TEXT_BLOCK_BYTES bytes on line
+ * boundaries, a binary file is read block by block through its block index. Several files are
+ * chained one after another.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class StreamingDataset implements Closeable {
+  static final long TEXT_BLOCK_BYTES = 16L << 20;
+
+  private static final class Block {
+    final int file;
+    // the binary block index, or -1 for the text between start and end
+    final int binaryBlock;
+    final long start;
+    final long end;
+    int firstTransaction;
+    int numTransactions;
+
+    Block(int file, int binaryBlock, long start, long end) {
+      this.file = file;
+      this.binaryBlock = binaryBlock;
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  private final List<FileChannel> channels;
+  private final List<BinaryDataset.Layout> layouts;
+  private final List<Block> blocks;
+  private final ForkJoinPool pool;
+  private int numTransactions;
+  private long numItems;
+  private int maxItemID;
+  private long totalUtility;
+  private long diskBytes;
+
+  /** Opens the files and reads every block once to collect the totals of the data set. */
+  StreamingDataset(List<String> inputFileArray, ForkJoinPool pool) throws IOException {
+    this.pool = pool;
+    channels = new ArrayList<>();
+    layouts = new ArrayList<>();
+    blocks = new ArrayList<>();
+
+    try {
+      for (String file : inputFileArray) {
+        Path path = Paths.get(file);
+        int fileIndex = channels.size();
+        boolean binary = BinaryDataset.isBinary(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        channels.add(channel);
+        diskBytes += Files.size(path);
+
+        if (binary) {
+          BinaryDataset.Layout layout = BinaryDataset.layout(channel);
+          layouts.add(layout);
+          for (int b = 0; b < layout.numBlocks; ++b) {
+            Block block = new Block(fileIndex, b, layout.blockStart[b], layout.blockStart[b + 1]);
+            block.numTransactions = layout.blockTransactions(b);
+            blocks.add(block);
+          }
+          maxItemID = Integer.max(maxItemID, layout.maxItemID);
+          totalUtility += layout.totalUtility;
+          numItems += layout.numItems;
+        } else {
+          layouts.add(null);
+          long[] bounds =
+              MappedDatasetReader.lineBounds(channel, 0, channel.size(), TEXT_BLOCK_BYTES);
+          for (int b = 0; b + 1 < bounds.length; ++b) {
+            Block block = new Block(fileIndex, -1, bounds[b], bounds[b + 1]);
+            TransactionDatabase database = readBlock(block);
+            block.numTransactions = database.size();
+            blocks.add(block);
+            maxItemID = Integer.max(maxItemID, database.getMaxItemID());
+            totalUtility += database.getTotalUtility();
+            numItems += database.getNumItems();
+          }
+        }
+      }
+
+      for (Block block : blocks) {
+        block.firstTransaction = numTransactions;
+        if ((long) numTransactions + block.numTransactions > Integer.MAX_VALUE) {
+          throw new IOException("Too many transactions: more than " + Integer.MAX_VALUE);
+        }
+        numTransactions += block.numTransactions;
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  private TransactionDatabase readBlock(Block block) throws IOException {
+    FileChannel channel = channels.get(block.file);
+    if (block.binaryBlock >= 0) {
+      return BinaryDataset.readBlock(channel, layouts.get(block.file), block.binaryBlock);
+    }
+    return MappedDatasetReader.read(channel, block.start, block.end, pool);
+  }
+
+  int getNumBlocks() {
+    return blocks.size();
+  }
+
+  /** Reads block b, its transaction t is transaction firstTransaction(b) + t of the data set. */
+  TransactionDatabase readBlock(int b) throws IOException {
+    return readBlock(blocks.get(b));
+  }
+
+  int firstTransaction(int b) {
+    return blocks.get(b).firstTransaction;
+  }
+
+  int blockTransactions(int b) {
+    return blocks.get(b).numTransactions;
+  }
+
+  int size() {
+    return numTransactions;
+  }
+
+  long getNumItems() {
+    return numItems;
+  }
+
+  int getMaxItemID() {
+    return maxItemID;
+  }
+
+  long getTotalUtility() {
+    return totalUtility;
+  }
+
+  /** The size of the files on disk per item. */
+  double bytesPerItem() {
+    return numItems == 0 ? 0.0 : (double) diskBytes / (double) numItems;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (FileChannel channel : channels) channel.close();
+  }
+}
@@ -0,0 +1,65 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.util.Arrays;
+
+/**
+ * The high average utility itemsets at several minimal utility thresholds, from one run at the
+ * lowest of them. The itemsets above a higher threshold are the ones of the lowest run whose
+ * average utility reaches its count, so every itemset found is counted at every threshold it
+ * reaches and tagged with the highest of them, and none has to be mined twice. The HAUIs of a
+ * threshold are the itemsets tagged with it or a higher one.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class ThresholdSweep {
+  private final double[] minSups;
+  private final double[] minSupCounts;
+  private final long[] numHAUIs;
+
+  /** The thresholds, in any order, of a data set with the given total utility. */
+  ThresholdSweep(double[] minSups, long totalUtility) {
+    this.minSups = minSups.clone();
+    Arrays.sort(this.minSups);
+    minSupCounts = new double[minSups.length];
+    // the same counts as Apriori.setMinSup
+    for (int i = 0; i < minSups.length; ++i) minSupCounts[i] = totalUtility * this.minSups[i];
+    numHAUIs = new long[minSups.length];
+  }
+
+  /** The lowest threshold, the one to mine at. */
+  double getMinSup() {
+    return minSups[0];
+  }
+
+  int size() {
+    return minSups.length;
+  }
+
+  double minSup(int i) {
+    return minSups[i];
+  }
+
+  double minSupCount(int i) {
+    return minSupCounts[i];
+  }
+
+  long numHAUIs(int i) {
+    return numHAUIs[i];
+  }
+
+  /** The index of the highest threshold whose count the average utility reaches, -1 if none. */
+  int highest(double aUtility) {
+    int i = 0;
+    while (i < minSupCounts.length && aUtility >= minSupCounts[i]) ++i;
+    return i - 1;
+  }
+
+  /** Counts a high itemset of the lowest threshold at every threshold it reaches. */
+  void add(double aUtility) {
+    for (int i = highest(aUtility); i >= 0; --i) ++numHAUIs[i];
+  }
+
+  void addAll(ItemsetMap itemsets) {
+    for (int e = itemsets.first(); e >= 0; e = itemsets.next(e)) add(itemsets.value(e));
+  }
+}
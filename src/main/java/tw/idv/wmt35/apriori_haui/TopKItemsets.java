@@ -0,0 +1,122 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.util.Arrays;
+
+/**
+ * The k itemsets with the highest average utility found so far, kept in a min-heap on the average
+ * utility. Once k itemsets are in, the smallest of them is the utility an itemset has to beat, so
+ * the threshold rises while the levels are mined. An itemset only replaces the smallest one when it
+ * is higher, so of itemsets with the same utility the one found first stays.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class TopKItemsets {
+  private final int k;
+  private final int[][] itemsets;
+  private final double[] aUtilities;
+  // the order the itemsets were offered in, to sort ties
+  private final long[] orders;
+  private int size;
+  private long numOffered;
+
+  TopKItemsets(int k) {
+    this.k = k;
+    itemsets = new int[k][];
+    aUtilities = new double[k];
+    orders = new long[k];
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * The average utility an itemset needs to get in: the smallest one of the heap when it is full,
+   * and the smallest positive number before, as itemsets without utility are never kept.
+   */
+  double threshold() {
+    return size < k ? Double.MIN_VALUE : aUtilities[0];
+  }
+
+  /** Keeps the itemset if it is one of the k highest so far, and tells whether it was kept. */
+  boolean offer(int[] itemset, double aUtility) {
+    long order = numOffered++;
+    if (aUtility < threshold() || (size == k && aUtility == aUtilities[0])) {
+      return false;
+    }
+    if (size < k) {
+      int i = size++;
+      set(i, itemset, aUtility, order);
+      siftUp(i);
+    } else {
+      set(0, itemset, aUtility, order);
+      siftDown(0);
+    }
+    return true;
+  }
+
+  /** Puts the itemsets into the map from the highest average utility down. */
+  void putInto(ItemsetMap map) {
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; ++i) order[i] = i;
+    Arrays.sort(
+        order,
+        (a, b) ->
+            aUtilities[a] != aUtilities[b]
+                ? Double.compare(aUtilities[b], aUtilities[a])
+                : Long.compare(orders[a], orders[b]));
+    for (int i : order) map.put(itemsets[i], aUtilities[i]);
+  }
+
+  private void set(int i, int[] itemset, double aUtility, long order) {
+    itemsets[i] = itemset;
+    aUtilities[i] = aUtility;
+    orders[i] = order;
+  }
+
+  // of the same utility the itemset offered later is lower, so it is replaced first
+  private boolean lower(int a, int b) {
+    return aUtilities[a] < aUtilities[b]
+        || (aUtilities[a] == aUtilities[b] && orders[a] > orders[b]);
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!lower(i, parent)) {
+        return;
+      }
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i) {
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        return;
+      }
+      if (child + 1 < size && lower(child + 1, child)) {
+        ++child;
+      }
+      if (!lower(child, i)) {
+        return;
+      }
+      swap(i, child);
+      i = child;
+    }
+  }
+
+  private void swap(int a, int b) {
+    int[] itemset = itemsets[a];
+    itemsets[a] = itemsets[b];
+    itemsets[b] = itemset;
+    double aUtility = aUtilities[a];
+    aUtilities[a] = aUtilities[b];
+    aUtilities[b] = aUtility;
+    long order = orders[a];
+    orders[a] = orders[b];
+    orders[b] = order;
+  }
+}
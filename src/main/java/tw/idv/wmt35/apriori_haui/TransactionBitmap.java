@@ -0,0 +1,105 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A bitmap of transaction IDs kept in a memory-mapped temporary file instead of the heap. It
+ * records which transactions still match some candidate while a data set is streamed from disk.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class TransactionBitmap implements Closeable {
+  private final Path file;
+  private final FileChannel channel;
+  private final LongBuffer words;
+  private final int numBits;
+
+  TransactionBitmap(int numBits) throws IOException {
+    this.numBits = numBits;
+    file = Files.createTempFile("apriori_haui", ".bitmap");
+    file.toFile().deleteOnExit();
+    channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE);
+    long numWords = ((long) numBits + 63) / 64;
+    MappedByteBuffer buffer =
+        channel.map(FileChannel.MapMode.READ_WRITE, 0, Long.max(numWords, 1) * 8);
+    words = buffer.order(ByteOrder.nativeOrder()).asLongBuffer();
+  }
+
+  /** Marks every transaction as alive. */
+  void setAll() {
+    int numWords = (numBits + 63) >>> 6;
+    for (int w = 0; w < numWords; ++w) words.put(w, -1L);
+    if ((numBits & 63) != 0) {
+      words.put(numWords - 1, -1L >>> (64 - (numBits & 63)));
+    }
+  }
+
+  boolean get(int bit) {
+    return (words.get(bit >>> 6) & (1L << bit)) != 0;
+  }
+
+  void clear(int bit) {
+    int w = bit >>> 6;
+    words.put(w, words.get(w) & ~(1L << bit));
+  }
+
+  /** Tells whether any bit from from (inclusive) to to (exclusive) is set. */
+  boolean any(int from, int to) {
+    if (from >= to) {
+      return false;
+    }
+    int first = from >>> 6;
+    int last = (to - 1) >>> 6;
+    for (int w = first; w <= last; ++w) {
+      long word = words.get(w);
+      if (w == first) {
+        word &= -1L << from;
+      }
+      if (w == last) {
+        word &= -1L >>> (63 - ((to - 1) & 63));
+      }
+      if (word != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** A copy of the words of the bitmap, for a checkpoint. */
+  long[] toWords() {
+    long[] copy = new long[(numBits + 63) >>> 6];
+    for (int w = 0; w < copy.length; ++w) copy[w] = words.get(w);
+    return copy;
+  }
+
+  /** Sets the bitmap to the words of a checkpoint. */
+  void setWords(long[] values) {
+    for (int w = 0; w < values.length; ++w) words.put(w, values[w]);
+  }
+
+  int cardinality() {
+    int count = 0;
+    int numWords = (numBits + 63) >>> 6;
+    for (int w = 0; w < numWords; ++w) count += Long.bitCount(words.get(w));
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    Files.deleteIfExists(file);
+  }
+}
@@ -0,0 +1,359 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A compact transaction database in compressed sparse row layout. The items and the utilities of
+ * all transactions are kept in two shared primitive arrays, and transaction t covers the positions
+ * from offset(t) to offset(t + 1) in both of them.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class TransactionDatabase {
+  private static final int INITIAL_TRANSACTIONS = 1024;
+  private static final int INITIAL_ITEMS = 8192;
+
+  private int[] items;
+  private int[] utilities;
+  // offsets[t] is the first position of transaction t, offsets[numTransactions] is the end
+  private int[] offsets;
+  private int[] tranUtility;
+  private int[] maxUtility;
+  private int numTransactions;
+  private int numItems;
+  private int maxItemID;
+  private long totalUtility;
+  // only set on a projection: the number of transactions merged into every record
+  private int[] weights;
+  // the inverted index, built on demand: the transactions containing item i are
+  // itemTransactions[itemStart[i]] to itemTransactions[itemStart[i + 1] - 1] in ascending order
+  private int[] itemStart;
+  private int[] itemTransactions;
+
+  TransactionDatabase() {
+    this(INITIAL_TRANSACTIONS, INITIAL_ITEMS);
+  }
+
+  TransactionDatabase(int transactionCapacity, int itemCapacity) {
+    items = new int[Integer.max(itemCapacity, 1)];
+    utilities = new int[items.length];
+    offsets = new int[Integer.max(transactionCapacity, 1) + 1];
+    tranUtility = new int[offsets.length - 1];
+    maxUtility = new int[offsets.length - 1];
+  }
+
+  /** Wraps arrays which are already filled with numTransactions transactions. */
+  TransactionDatabase(
+      int[] items,
+      int[] utilities,
+      int[] offsets,
+      int[] tranUtility,
+      int[] maxUtility,
+      int maxItemID,
+      long totalUtility) {
+    this.items = items;
+    this.utilities = utilities;
+    this.offsets = offsets;
+    this.tranUtility = tranUtility;
+    this.maxUtility = maxUtility;
+    this.numTransactions = tranUtility.length;
+    this.numItems = offsets[numTransactions];
+    this.maxItemID = maxItemID;
+    this.totalUtility = totalUtility;
+  }
+
+  /** Wraps the arrays of a projection, with the weights of its records. */
+  TransactionDatabase(
+      int[] items,
+      int[] utilities,
+      int[] offsets,
+      int[] tranUtility,
+      int[] maxUtility,
+      int[] weights,
+      int maxItemID,
+      long totalUtility) {
+    this(items, utilities, offsets, tranUtility, maxUtility, maxItemID, totalUtility);
+    this.weights = weights;
+  }
+
+  private void ensureItemCapacity(int capacity) {
+    if (capacity > items.length) {
+      int newLength = (int) Long.min(Integer.MAX_VALUE - 8, Long.max(capacity, items.length * 2L));
+      items = Arrays.copyOf(items, newLength);
+      utilities = Arrays.copyOf(utilities, newLength);
+    }
+  }
+
+  private void ensureTransactionCapacity(int capacity) {
+    if (capacity > tranUtility.length) {
+      int newLength = Integer.max(capacity, tranUtility.length * 2);
+      offsets = Arrays.copyOf(offsets, newLength + 1);
+      tranUtility = Arrays.copyOf(tranUtility, newLength);
+      maxUtility = Arrays.copyOf(maxUtility, newLength);
+      if (weights != null) {
+        weights = Arrays.copyOf(weights, newLength);
+      }
+    }
+  }
+
+  /** Appends a transaction whose items are sorted in ascending order. */
+  void add(int[] itemBuffer, int[] utilityBuffer, int length, int transactionUtility) {
+    dropItemIndex();
+    ensureTransactionCapacity(numTransactions + 1);
+    ensureItemCapacity(numItems + length);
+    System.arraycopy(itemBuffer, 0, items, numItems, length);
+    System.arraycopy(utilityBuffer, 0, utilities, numItems, length);
+
+    int max = 0;
+    for (int i = 0; i < length; ++i) {
+      maxItemID = Integer.max(maxItemID, itemBuffer[i]);
+      max = Integer.max(max, utilityBuffer[i]);
+    }
+
+    tranUtility[numTransactions] = transactionUtility;
+    maxUtility[numTransactions] = max;
+    totalUtility += transactionUtility;
+    numItems += length;
+    ++numTransactions;
+    offsets[numTransactions] = numItems;
+  }
+
+  /** Appends every transaction of another database. */
+  void addAll(TransactionDatabase other) {
+    dropItemIndex();
+    ensureTransactionCapacity(numTransactions + other.numTransactions);
+    ensureItemCapacity(numItems + other.numItems);
+    System.arraycopy(other.items, 0, items, numItems, other.numItems);
+    System.arraycopy(other.utilities, 0, utilities, numItems, other.numItems);
+    System.arraycopy(other.tranUtility, 0, tranUtility, numTransactions, other.numTransactions);
+    System.arraycopy(other.maxUtility, 0, maxUtility, numTransactions, other.numTransactions);
+    for (int t = 1; t <= other.numTransactions; ++t) {
+      offsets[numTransactions + t] = numItems + other.offsets[t];
+    }
+
+    maxItemID = Integer.max(maxItemID, other.maxItemID);
+    totalUtility += other.totalUtility;
+    numItems += other.numItems;
+    numTransactions += other.numTransactions;
+  }
+
+  /** A copy of the transactions from from (inclusive) to to (exclusive), numbered from 0. */
+  TransactionDatabase range(int from, int to) {
+    int first = offsets[from];
+    int[] rangeOffsets = new int[to - from + 1];
+    for (int t = from; t <= to; ++t) rangeOffsets[t - from] = offsets[t] - first;
+    int[] rangeItems = Arrays.copyOfRange(items, first, offsets[to]);
+    int[] rangeTranUtility = Arrays.copyOfRange(tranUtility, from, to);
+
+    int rangeMaxItemID = 0;
+    for (int item : rangeItems) rangeMaxItemID = Integer.max(rangeMaxItemID, item);
+    long rangeTotalUtility = 0;
+    for (int utility : rangeTranUtility) rangeTotalUtility += utility;
+    return new TransactionDatabase(
+        rangeItems,
+        Arrays.copyOfRange(utilities, first, offsets[to]),
+        rangeOffsets,
+        rangeTranUtility,
+        Arrays.copyOfRange(maxUtility, from, to),
+        rangeMaxItemID,
+        rangeTotalUtility);
+  }
+
+  /** Releases the unused capacity of the backing arrays. */
+  void trimToSize() {
+    items = Arrays.copyOf(items, numItems);
+    utilities = Arrays.copyOf(utilities, numItems);
+    offsets = Arrays.copyOf(offsets, numTransactions + 1);
+    tranUtility = Arrays.copyOf(tranUtility, numTransactions);
+    maxUtility = Arrays.copyOf(maxUtility, numTransactions);
+    if (weights != null) {
+      weights = Arrays.copyOf(weights, numTransactions);
+    }
+  }
+
+  /**
+   * Projects the given transactions on the kept items, and merges the identical projections, with
+   * the same items and the same utilities, into one record whose weight is the number of merged
+   * transactions. Projections shorter than minLength are dropped.
+   *
+   * <p>A record keeps the utilities of one of its transactions, so its maximal utility and the
+   * bounds of the candidates in it are exact, and they are multiplied by the weight where they are
+   * summed up. The transaction utility of a record is the sum of those of its transactions.
+   */
+  TransactionDatabase project(int[] tids, int numTids, BitSet keep, int minLength) {
+    TransactionDatabase projection = new TransactionDatabase(numTids, numItems / 2 + 1);
+    projection.weights = new int[projection.tranUtility.length];
+    int[] itemBuffer = new int[64];
+    int[] utilityBuffer = new int[64];
+    int[] table = new int[64];
+    Arrays.fill(table, -1);
+
+    for (int r = 0; r < numTids; ++r) {
+      int tid = tids[r];
+      int length = 0;
+      for (int i = offsets[tid]; i < offsets[tid + 1]; ++i) {
+        int name = items[i];
+        if (keep.get(name)) {
+          if (length == itemBuffer.length) {
+            itemBuffer = Arrays.copyOf(itemBuffer, length * 2);
+            utilityBuffer = Arrays.copyOf(utilityBuffer, length * 2);
+          }
+          itemBuffer[length] = name;
+          utilityBuffer[length] = utilities[i];
+          ++length;
+        }
+      }
+      if (length < minLength) {
+        continue;
+      }
+
+      int weight = weights == null ? 1 : weights[tid];
+      int hash = hash(itemBuffer, utilityBuffer, 0, length);
+      int mask = table.length - 1;
+      int slot = hash & mask;
+      int record;
+      while ((record = table[slot]) != -1
+          && !projection.hasItems(record, itemBuffer, utilityBuffer, length)) {
+        slot = (slot + 1) & mask;
+      }
+
+      if (record == -1) {
+        record = projection.numTransactions;
+        projection.add(itemBuffer, utilityBuffer, length, tranUtility[tid]);
+        projection.weights[record] = weight;
+        table[slot] = record;
+        if (projection.numTransactions * 2 > table.length) {
+          table = projection.rehash(table.length * 2);
+        }
+      } else {
+        projection.tranUtility[record] += tranUtility[tid];
+        projection.totalUtility += tranUtility[tid];
+        projection.weights[record] += weight;
+      }
+    }
+
+    projection.trimToSize();
+    return projection;
+  }
+
+  private static int hash(int[] itemArray, int[] utilityArray, int from, int to) {
+    int hash = 1;
+    for (int i = from; i < to; ++i) hash = 31 * (31 * hash + itemArray[i]) + utilityArray[i];
+    return hash ^ (hash >>> 16);
+  }
+
+  private boolean hasItems(int record, int[] itemBuffer, int[] utilityBuffer, int length) {
+    int start = offsets[record];
+    if (offsets[record + 1] - start != length) {
+      return false;
+    }
+    for (int i = 0; i < length; ++i) {
+      if (items[start + i] != itemBuffer[i] || utilities[start + i] != utilityBuffer[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int[] rehash(int capacity) {
+    int[] table = new int[capacity];
+    Arrays.fill(table, -1);
+    int mask = capacity - 1;
+    for (int record = 0; record < numTransactions; ++record) {
+      int slot = hash(items, utilities, offsets[record], offsets[record + 1]) & mask;
+      while (table[slot] != -1) slot = (slot + 1) & mask;
+      table[slot] = record;
+    }
+    return table;
+  }
+
+  /** Builds the index from every item to the transactions which contain it. */
+  void buildItemIndex() {
+    itemStart = new int[maxItemID + 2];
+    for (int i = 0; i < numItems; ++i) ++itemStart[items[i] + 1];
+    for (int item = 0; item <= maxItemID; ++item) itemStart[item + 1] += itemStart[item];
+
+    itemTransactions = new int[numItems];
+    int[] next = Arrays.copyOf(itemStart, maxItemID + 1);
+    for (int tid = 0; tid < numTransactions; ++tid) {
+      for (int i = offsets[tid]; i < offsets[tid + 1]; ++i) {
+        itemTransactions[next[items[i]]++] = tid;
+      }
+    }
+  }
+
+  private void dropItemIndex() {
+    itemStart = null;
+    itemTransactions = null;
+  }
+
+  boolean hasItemIndex() {
+    return itemStart != null;
+  }
+
+  int[] itemStarts() {
+    return itemStart;
+  }
+
+  int[] itemTransactions() {
+    return itemTransactions;
+  }
+
+  int size() {
+    return numTransactions;
+  }
+
+  int getNumItems() {
+    return numItems;
+  }
+
+  int getMaxItemID() {
+    return maxItemID;
+  }
+
+  long getTotalUtility() {
+    return totalUtility;
+  }
+
+  int[] items() {
+    return items;
+  }
+
+  int[] utilities() {
+    return utilities;
+  }
+
+  int[] offsets() {
+    return offsets;
+  }
+
+  int[] tranUtilities() {
+    return tranUtility;
+  }
+
+  int[] maxUtilities() {
+    return maxUtility;
+  }
+
+  /** The number of transactions merged into every record, null when nothing was merged. */
+  int[] weights() {
+    return weights;
+  }
+
+  /** The number of bytes held by the backing arrays. */
+  long footprintBytes() {
+    return 4L * items.length
+        + 4L * utilities.length
+        + 4L * offsets.length
+        + 4L * tranUtility.length
+        + 4L * maxUtility.length
+        + (weights == null ? 0 : 4L * weights.length)
+        + (itemStart == null ? 0 : 4L * itemStart.length + 4L * itemTransactions.length);
+  }
+
+  /** The average number of bytes needed to hold one item occurrence. */
+  double bytesPerItem() {
+    return numItems == 0 ? 0.0 : (double) footprintBytes() / (double) numItems;
+  }
+}
@@ -0,0 +1,378 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A vertical engine which finds the itemsets of the levels of Apriori. Every itemset has a
+ * utility list with one entry per transaction containing it: its utility there, the position of
+ * its last item, and the largest utility of the other items of the transaction with the number of
+ * them having it. The list of an itemset extended by one item is the intersection of the lists of
+ * two itemsets with the same prefix, so the transactions are only read once, to build the lists of
+ * the single items.
+ *
+ * <p>The search and its pruning follow Apriori: an itemset is extended only when it is a lead, by
+ * the larger items of the combined itemsets with the same prefix, and the lead and the global
+ * upper bounds come from the same other items of a transaction, which are the items combined in
+ * the first level. The subtrees of the single items are mined in parallel, and the itemsets found
+ * are put into the maps in the order Apriori finds them.
+ *
+ * <p>Unlike Apriori it does not check the other subsets of a candidate. Apriori drops a candidate
+ * one of whose subsets is not combined, also when that subset was never counted because it
+ * extends a combined itemset which is no lead, so this engine can find pre-large itemsets which
+ * the levels of Apriori miss.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class UtilityListMiner {
+  private final TransactionDatabase data;
+  private final double minSupCount;
+  private final Double preLargeCount;
+  private final double thresholdCount;
+  private final boolean leadUpperbound;
+  private final ForkJoinPool pool;
+  // the items combined in the first level
+  private boolean[] combined;
+  // the largest utility and the number of the combined items after every position of data
+  private int[] followMax;
+  private int[] followCount;
+  // the number of the combined items of every transaction
+  private int[] numCombined;
+  private int numCandidates;
+  private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+  // the buffers of the joins of a thread
+  private final class Buffers {
+    // the entry of every transaction in the list of the lead plus 1, 0 if it is not in the list
+    final int[] leadEntry = new int[data.size()];
+    int[] tids = new int[64];
+    int[] utilities = new int[64];
+    int[] positions = new int[64];
+    int[] otherMax = new int[64];
+    int[] numOtherMax = new int[64];
+    // the largest utility of the other items of a transaction and the number of them having it
+    int max;
+    int numMax;
+  }
+
+  UtilityListMiner(
+      TransactionDatabase data,
+      double minSupCount,
+      Double preLargeCount,
+      double thresholdCount,
+      boolean leadUpperbound,
+      ForkJoinPool pool) {
+    this.data = data;
+    this.minSupCount = minSupCount;
+    this.preLargeCount = preLargeCount;
+    this.thresholdCount = thresholdCount;
+    this.leadUpperbound = leadUpperbound;
+    this.pool = pool;
+  }
+
+  // an itemset with its utility list and the sums of its utility and bounds over the list
+  private static final class UtilityList {
+    final int[] itemset;
+    final int[] tids;
+    final int[] utilities;
+    final int[] positions;
+    final int[] otherMax;
+    final int[] numOtherMax;
+    int size;
+    long tUtility;
+    double mUtility;
+    double gMUtility;
+
+    UtilityList(int[] itemset, int capacity) {
+      this.itemset = itemset;
+      tids = new int[capacity];
+      utilities = new int[capacity];
+      positions = new int[capacity];
+      otherMax = new int[capacity];
+      numOtherMax = new int[capacity];
+    }
+
+    UtilityList(int[] itemset, Buffers buffer, int size) {
+      this.itemset = itemset;
+      this.size = size;
+      tids = Arrays.copyOf(buffer.tids, size);
+      utilities = Arrays.copyOf(buffer.utilities, size);
+      positions = Arrays.copyOf(buffer.positions, size);
+      otherMax = Arrays.copyOf(buffer.otherMax, size);
+      numOtherMax = Arrays.copyOf(buffer.numOtherMax, size);
+    }
+  }
+
+  /** The number of itemsets whose utility was counted, the single items included. */
+  int getNumCandidates() {
+    return numCandidates;
+  }
+
+  /** Mines the data set and puts the high and the pre-large itemsets into the maps. */
+  void mine(ItemsetMap highAUtilityItemsets, ItemsetMap preLargeUtilityItemsets) {
+    int maxItemID = data.getMaxItemID();
+    int[] items = data.items();
+    int[] utilities = data.utilities();
+    int[] offsets = data.offsets();
+    int[] maxUtilities = data.maxUtilities();
+
+    // find large-1 itemsets
+    long[] utility = new long[maxItemID + 1];
+    double[] mUtility = new double[maxItemID + 1];
+    int[] frequency = new int[maxItemID + 1];
+    for (int tid = 0; tid < data.size(); ++tid) {
+      for (int j = offsets[tid]; j < offsets[tid + 1]; ++j) {
+        utility[items[j]] += utilities[j];
+        mUtility[items[j]] += maxUtilities[tid];
+        ++frequency[items[j]];
+      }
+    }
+    numCandidates = maxItemID + 1;
+
+    combined = new boolean[maxItemID + 1];
+    UtilityList[] lists = new UtilityList[maxItemID + 1];
+    List<UtilityList> singles = new ArrayList<>();
+    for (int i = 1; i <= maxItemID; ++i) {
+      int[] itemset = {i};
+      if (utility[i] >= minSupCount) {
+        highAUtilityItemsets.put(itemset, utility[i]);
+      } else if (preLargeCount != null && utility[i] >= preLargeCount) {
+        preLargeUtilityItemsets.put(itemset, utility[i]);
+      }
+
+      if (mUtility[i] >= thresholdCount) {
+        combined[i] = true;
+        lists[i] = new UtilityList(itemset, frequency[i]);
+        lists[i].mUtility = mUtility[i];
+        lists[i].gMUtility = mUtility[i];
+        singles.add(lists[i]);
+      }
+    }
+    if (singles.isEmpty()) {
+      return;
+    }
+
+    // the lists of the single items and the other items after every position
+    followMax = new int[items.length];
+    followCount = new int[items.length];
+    numCombined = new int[data.size()];
+    for (int tid = 0; tid < data.size(); ++tid) {
+      int max = 0;
+      int count = 0;
+      // the two largest utilities of the combined items and the number of items having them
+      int first = 0;
+      int numFirst = 0;
+      int second = 0;
+      int numSecond = 0;
+      for (int j = offsets[tid + 1] - 1; j >= offsets[tid]; --j) {
+        followMax[j] = max;
+        followCount[j] = count;
+        if (combined[items[j]]) {
+          int u = utilities[j];
+          max = Integer.max(max, u);
+          ++count;
+          if (u > first) {
+            second = first;
+            numSecond = numFirst;
+            first = u;
+            numFirst = 1;
+          } else if (u == first) {
+            ++numFirst;
+          } else if (u > second) {
+            second = u;
+            numSecond = 1;
+          } else if (u == second) {
+            ++numSecond;
+          }
+        }
+      }
+      numCombined[tid] = count;
+
+      for (int j = offsets[tid]; j < offsets[tid + 1]; ++j) {
+        if (combined[items[j]]) {
+          UtilityList list = lists[items[j]];
+          int k = list.size++;
+          list.tids[k] = tid;
+          list.utilities[k] = utilities[j];
+          list.positions[k] = j;
+          if (utilities[j] < first || numFirst > 1) {
+            list.otherMax[k] = first;
+            list.numOtherMax[k] = utilities[j] < first ? numFirst : numFirst - 1;
+          } else {
+            list.otherMax[k] = second;
+            list.numOtherMax[k] = numSecond;
+          }
+          list.tUtility += utilities[j];
+        }
+      }
+    }
+
+    BranchResults[] results = new BranchResults[singles.size()];
+    pool.invoke(new BranchTask(singles, results, 0, singles.size()));
+    numCandidates +=
+        BranchResults.putInLevelOrder(
+            Arrays.asList(results), highAUtilityItemsets, preLargeUtilityItemsets);
+  }
+
+  // mines the subtrees of the single items from low to high, one task per item
+  private final class BranchTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final List<UtilityList> singles;
+    private final BranchResults[] results;
+    private final int low;
+    private final int high;
+
+    BranchTask(List<UtilityList> singles, BranchResults[] results, int low, int high) {
+      this.singles = singles;
+      this.results = results;
+      this.low = low;
+      this.high = high;
+    }
+
+    @Override
+    protected void compute() {
+      if (high - low == 1) {
+        results[low] = new BranchResults(minSupCount, preLargeCount);
+        extend(singles, low, results[low]);
+        return;
+      }
+      int middle = (low + high) >>> 1;
+      invokeAll(
+          new BranchTask(singles, results, low, middle),
+          new BranchTask(singles, results, middle, high));
+    }
+  }
+
+  private boolean isLead(UtilityList list) {
+    return (leadUpperbound ? list.mUtility : list.gMUtility) >= thresholdCount;
+  }
+
+  // mines the supersets of the itemset at index, by joining it with the larger combined itemsets
+  // of the same prefix, which are the ones after it
+  private void extend(List<UtilityList> extensions, int index, BranchResults results) {
+    UtilityList lead = extensions.get(index);
+    if (!isLead(lead)) {
+      return;
+    }
+
+    Buffers buffer = buffers.get();
+    int[] leadEntry = buffer.leadEntry;
+    for (int i = 0; i < lead.size; ++i) leadEntry[lead.tids[i]] = i + 1;
+    List<UtilityList> next = new ArrayList<>();
+    for (int j = index + 1; j < extensions.size(); ++j) {
+      UtilityList partner = extensions.get(j);
+      if (partner.gMUtility < thresholdCount) {
+        continue;
+      }
+      UtilityList joined = join(lead, partner, buffer, results);
+      if (joined != null) {
+        next.add(joined);
+      }
+    }
+    for (int i = 0; i < lead.size; ++i) leadEntry[lead.tids[i]] = 0;
+
+    for (int j = 0; j < next.size(); ++j) {
+      extend(next, j, results);
+      // only the later itemsets are joined with an earlier one
+      next.set(j, null);
+    }
+  }
+
+  // counts lead with the last item of partner, which has the same prefix and a larger item, into
+  // results, and gives its list if it is combined or a lead, or null
+  private UtilityList join(
+      UtilityList lead, UtilityList partner, Buffers buffer, BranchResults results) {
+    int length = lead.itemset.length + 1;
+    int[] itemset = Arrays.copyOf(lead.itemset, length);
+    itemset[length - 1] = partner.itemset[length - 2];
+    int[] utilities = data.utilities();
+    int[] leadEntry = buffer.leadEntry;
+    int capacity = Integer.min(lead.size, partner.size);
+    if (buffer.tids.length < capacity) {
+      buffer.tids = new int[capacity];
+      buffer.utilities = new int[capacity];
+      buffer.positions = new int[capacity];
+      buffer.otherMax = new int[capacity];
+      buffer.numOtherMax = new int[capacity];
+    }
+
+    int size = 0;
+    long tUtility = 0;
+    double mUtility = 0;
+    double gMUtility = 0;
+    for (int j = 0; j < partner.size; ++j) {
+      int tid = partner.tids[j];
+      int i = leadEntry[tid] - 1;
+      if (i < 0) {
+        continue;
+      }
+      int position = partner.positions[j];
+      int utility = lead.utilities[i] + utilities[position];
+      // the new item only changes the largest other utility when it is the only one having it
+      int max = lead.otherMax[i];
+      int numMax = lead.numOtherMax[i];
+      if (utilities[position] == max) {
+        if (--numMax == 0) {
+          otherMax(tid, itemset, buffer);
+          max = buffer.max;
+          numMax = buffer.numMax;
+        }
+      }
+
+      buffer.tids[size] = tid;
+      buffer.utilities[size] = utility;
+      buffer.positions[size] = position;
+      buffer.otherMax[size] = max;
+      buffer.numOtherMax[size] = numMax;
+      ++size;
+      tUtility += utility;
+      if (followCount[position] > 0) {
+        mUtility +=
+            MaxFollow.upperbound(utility, length, followMax[position], followCount[position]);
+      }
+      int countOther = numCombined[tid] - length;
+      if (countOther > 0) {
+        gMUtility += MaxFollow.upperbound(utility, length, max, countOther);
+      }
+    }
+
+    results.add(itemset, tUtility);
+
+    double leadBound = leadUpperbound ? mUtility : gMUtility;
+    if (gMUtility < thresholdCount && leadBound < thresholdCount) {
+      return null;
+    }
+    UtilityList joined = new UtilityList(itemset, buffer, size);
+    joined.tUtility = tUtility;
+    joined.mUtility = mUtility;
+    joined.gMUtility = gMUtility;
+    return joined;
+  }
+
+  // finds the largest utility of the combined items of transaction tid which are not in itemset,
+  // and the number of them having it
+  private void otherMax(int tid, int[] itemset, Buffers buffer) {
+    int[] items = data.items();
+    int[] utilities = data.utilities();
+    int[] offsets = data.offsets();
+    int max = 0;
+    int numMax = 0;
+    int k = 0;
+    for (int p = offsets[tid]; p < offsets[tid + 1]; ++p) {
+      while (k < itemset.length && itemset[k] < items[p]) ++k;
+      if (combined[items[p]] && (k == itemset.length || itemset[k] != items[p])) {
+        if (utilities[p] > max) {
+          max = utilities[p];
+          numMax = 1;
+        } else if (utilities[p] == max) {
+          ++numMax;
+        }
+      }
+    }
+    buffer.max = max;
+    buffer.numMax = numMax;
+  }
+}
@@ -0,0 +1,88 @@
+package tw.idv.wmt35.apriori_haui;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Unsigned LEB128 varints, the seven low bits of a value in every byte with the high bit set on
+ * all bytes but the last. The binary data sets write their lengths, utilities and item deltas
+ * this way, the binary itemsets files, the checkpoints and the state files of the incremental
+ * miner their lengths and item deltas.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class Varints {
+  // the bytes of the largest int
+  static final int MAX_BYTES = 5;
+
+  private Varints() {}
+
+  /** Writes the value at position of the array, and gives the position after it. */
+  static int put(byte[] bytes, int position, int value) {
+    while ((value & ~0x7F) != 0) {
+      bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes[position++] = (byte) value;
+    return position;
+  }
+
+  /** Writes the value at the position of the buffer. */
+  static void put(ByteBuffer buffer, int value) {
+    while ((value & ~0x7F) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  /** Writes the value to the output. */
+  static void put(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /** Reads the value at cursor[0] of the buffer, and moves the cursor after it. */
+  static int get(ByteBuffer buffer, int[] cursor) {
+    int position = cursor[0];
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get(position++);
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    cursor[0] = position;
+    return value;
+  }
+
+  /** Reads the value at the position of the buffer. */
+  static int get(ByteBuffer buffer) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  /** Reads the value from the input. */
+  static int get(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+}
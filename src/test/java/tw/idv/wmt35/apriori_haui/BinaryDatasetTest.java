@@ -0,0 +1,44 @@
+package tw.idv.wmt35.apriori_haui;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Round trips of the binary data set format.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+class BinaryDatasetTest {
+  @TempDir Path directory;
+
+  @Test
+  void readsBackWhatItWrote() throws IOException {
+    // more than one block of transactions
+    TransactionDatabase database =
+        TestDatabases.generate(BinaryDataset.BLOCK_SIZE + 1000, 40, 6, 1);
+    Path path = directory.resolve("data.bin");
+    BinaryDataset.write(database, path);
+
+    assertTrue(BinaryDataset.isBinary(path));
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      TestDatabases.assertSameTransactions(database, BinaryDataset.read(path, pool));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  void textIsNotBinary() throws IOException {
+    Path path = directory.resolve("data.txt");
+    Files.writeString(path, "1 2 3:6:1 2 3\n2 4:5:2 3\n");
+    assertFalse(BinaryDataset.isBinary(path));
+  }
+}
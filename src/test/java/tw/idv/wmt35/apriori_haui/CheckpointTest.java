@@ -0,0 +1,193 @@
+package tw.idv.wmt35.apriori_haui;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Round trips of the checkpoint file, and runs resumed from it.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+class CheckpointTest {
+  private static final double MIN_SUP = 0.01;
+  private static final double PRE_LARGE_THRESHOLD = 0.005;
+
+  @TempDir Path directory;
+
+  // a checkpoint after the second level with some of every field
+  private static Checkpoint checkpoint() {
+    Checkpoint checkpoint = new Checkpoint();
+    checkpoint.numTransactions = 1000;
+    checkpoint.maxItemID = 300;
+    checkpoint.totalUtility = 123456789012L;
+    checkpoint.minSupCount = 1234.5;
+    checkpoint.preLargeCount = Double.NaN;
+    checkpoint.leadUpperbound = true;
+    checkpoint.projection = false;
+    checkpoint.level = 2;
+    checkpoint.totalCandidateCount = 4321;
+    checkpoint.leads = List.of(new int[] {1, 2}, new int[] {2, 300});
+    checkpoint.combined = List.of(new int[] {1, 2}, new int[] {1, 5}, new int[] {2, 300});
+    checkpoint.reserved = new BitSet();
+    for (int item : new int[] {1, 2, 5, 300}) checkpoint.reserved.set(item);
+    checkpoint.highItemsets = new ItemsetMap();
+    checkpoint.highItemsets.put(new int[] {2}, 2000.25);
+    checkpoint.preLargeItemsets = new ItemsetMap();
+    checkpoint.preLargeItemsets.put(new int[] {1, 5}, 1.0 / 3.0);
+    return checkpoint;
+  }
+
+  private static void assertSameLevel(Checkpoint expected, Checkpoint actual) {
+    assertTrue(expected.sameSettings(actual));
+    assertEquals(expected.level, actual.level);
+    assertEquals(expected.totalCandidateCount, actual.totalCandidateCount);
+    assertEquals(expected.leads.size(), actual.leads.size());
+    for (int i = 0; i < expected.leads.size(); ++i) {
+      assertArrayEquals(expected.leads.get(i), actual.leads.get(i));
+    }
+    assertEquals(expected.combined.size(), actual.combined.size());
+    for (int i = 0; i < expected.combined.size(); ++i) {
+      assertArrayEquals(expected.combined.get(i), actual.combined.get(i));
+    }
+    assertEquals(expected.reserved, actual.reserved);
+    assertEquals(
+        TestDatabases.toMap(expected.highItemsets), TestDatabases.toMap(actual.highItemsets));
+    assertEquals(
+        TestDatabases.toMap(expected.preLargeItemsets),
+        TestDatabases.toMap(actual.preLargeItemsets));
+  }
+
+  @Test
+  void readsBackTheRelatedTransactions() throws IOException {
+    Checkpoint checkpoint = checkpoint();
+    checkpoint.related = new int[] {0, 7, 128, 999};
+    checkpoint.write(directory);
+
+    Checkpoint read = Checkpoint.read(directory.resolve(Checkpoint.FILE_NAME));
+    assertSameLevel(checkpoint, read);
+    assertArrayEquals(checkpoint.related, read.related);
+    assertNull(read.working);
+    assertNull(read.survivors);
+    assertFalse(Files.exists(directory.resolve("checkpoint.tmp")));
+  }
+
+  @Test
+  void readsBackTheRecordsOfAProjection() throws IOException {
+    // every transaction three times, so that the projection merges them
+    TransactionDatabase generated = TestDatabases.generate(200, 30, 8, 2);
+    TransactionDatabase database = new TransactionDatabase();
+    for (int copy = 0; copy < 3; ++copy) database.addAll(generated);
+    BitSet keep = new BitSet();
+    keep.set(1, 20);
+    int[] tids = new int[database.size()];
+    for (int t = 0; t < tids.length; ++t) tids[t] = t;
+    TransactionDatabase projection = database.project(tids, tids.length, keep, 2);
+
+    Checkpoint checkpoint = checkpoint();
+    checkpoint.projection = true;
+    checkpoint.working = projection;
+    checkpoint.related = new int[projection.size()];
+    for (int r = 0; r < projection.size(); ++r) checkpoint.related[r] = r;
+    checkpoint.write(directory);
+
+    Checkpoint read = Checkpoint.read(directory.resolve(Checkpoint.FILE_NAME));
+    assertSameLevel(checkpoint, read);
+    TestDatabases.assertSameTransactions(projection, read.working);
+    assertArrayEquals(projection.weights(), read.working.weights());
+    assertTrue(read.working.weights()[0] >= 3);
+    assertArrayEquals(checkpoint.related, read.related);
+  }
+
+  @Test
+  void readsBackTheSurvivorsOfAStream() throws IOException {
+    Checkpoint checkpoint = checkpoint();
+    checkpoint.streaming = true;
+    checkpoint.preLargeCount = 600.0;
+    checkpoint.survivors = new long[] {-1L, 0L, 0x8000_0000_0000_0001L};
+    checkpoint.write(directory);
+
+    Checkpoint read = Checkpoint.read(directory.resolve(Checkpoint.FILE_NAME));
+    assertSameLevel(checkpoint, read);
+    assertArrayEquals(checkpoint.survivors, read.survivors);
+  }
+
+  @Test
+  void refusesAnotherFile() throws IOException {
+    Path path = directory.resolve(Checkpoint.FILE_NAME);
+    Files.write(path, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+    assertThrows(IOException.class, () -> Checkpoint.read(path));
+  }
+
+  private static Apriori apriori(TransactionDatabase database, double minSup, boolean projection) {
+    Apriori apriori = new Apriori();
+    apriori.setDatabase(database);
+    apriori.setMinSup(minSup);
+    apriori.setPreLargeThreshold(PRE_LARGE_THRESHOLD);
+    apriori.setProjection(projection);
+    return apriori;
+  }
+
+  @Test
+  void resumedRunFindsTheSameItemsets() throws IOException {
+    TransactionDatabase database = TestDatabases.generate(2000, 30, 10, 3);
+    for (boolean projection : new boolean[] {false, true}) {
+      Apriori full = apriori(database, MIN_SUP, projection);
+      full.run();
+      assertFalse(full.getHighAUtilityItemsetsCount().isEmpty());
+
+      // a run cut off after its second level
+      Path cutOff = Files.createDirectory(directory.resolve("cut-off-" + projection));
+      Apriori part = apriori(database, MIN_SUP, projection);
+      part.setCheckpointDirectory(cutOff);
+      part.firstLevel();
+      part.nextLevel();
+      part.awaitCheckpoint();
+      Path resumeDirectory = Files.createDirectory(directory.resolve("resume-" + projection));
+      Files.copy(
+          cutOff.resolve(Checkpoint.FILE_NAME), resumeDirectory.resolve(Checkpoint.FILE_NAME));
+
+      Apriori resumed = apriori(database, MIN_SUP, projection);
+      resumed.setCheckpointDirectory(resumeDirectory);
+      resumed.run();
+      assertTrue(resumed.getResumedLevel() >= 1);
+      assertEquals(
+          TestDatabases.toMap(full.getHighAUtilityItemsetsCount()),
+          TestDatabases.toMap(resumed.getHighAUtilityItemsetsCount()));
+      assertEquals(
+          TestDatabases.toMap(full.getPreLargeUtilityItemsetsCount()),
+          TestDatabases.toMap(resumed.getPreLargeUtilityItemsetsCount()));
+      assertEquals(full.getTotalCandidateCount(), resumed.getTotalCandidateCount());
+      // a finished run leaves nothing to resume from
+      assertFalse(Files.exists(resumeDirectory.resolve(Checkpoint.FILE_NAME)));
+    }
+  }
+
+  @Test
+  void refusesOtherThresholds() throws IOException {
+    TransactionDatabase database = TestDatabases.generate(2000, 30, 10, 3);
+    Apriori part = apriori(database, MIN_SUP, false);
+    part.setCheckpointDirectory(directory);
+    part.firstLevel();
+    part.nextLevel();
+    part.awaitCheckpoint();
+    Path resumeDirectory = Files.createDirectory(directory.resolve("resume"));
+    Files.copy(
+        directory.resolve(Checkpoint.FILE_NAME), resumeDirectory.resolve(Checkpoint.FILE_NAME));
+
+    Apriori other = apriori(database, MIN_SUP * 2, false);
+    other.setCheckpointDirectory(resumeDirectory);
+    assertThrows(IllegalStateException.class, other::run);
+  }
+}
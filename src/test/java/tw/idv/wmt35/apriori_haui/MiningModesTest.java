@@ -0,0 +1,115 @@
+package tw.idv.wmt35.apriori_haui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The high average utility itemsets of one data set mined in every mode. Only the HAUIs are
+ * compared, since the vertical and the depth-first engines can find more pre-large itemsets than
+ * the levels.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+class MiningModesTest {
+  private static final double MIN_SUP = 0.01;
+  private static final double PRE_LARGE_THRESHOLD = 0.005;
+  // sums of the batches may differ in their last bits
+  private static final double DELTA = 1e-6;
+
+  private static TransactionDatabase database;
+  private static Map<String, Double> expected;
+
+  @TempDir Path directory;
+
+  private static Apriori apriori(MiningEngine engine) {
+    Apriori apriori = new Apriori();
+    apriori.setDatabase(database);
+    apriori.setMinSup(MIN_SUP);
+    apriori.setEngine(engine);
+    return apriori;
+  }
+
+  @BeforeAll
+  static void mineLevelWise() {
+    database = TestDatabases.generate(3000, 30, 10, 5);
+    Apriori apriori = apriori(MiningEngine.LEVEL_WISE);
+    apriori.run();
+    expected = TestDatabases.toMap(apriori.getHighAUtilityItemsetsCount());
+    assertFalse(expected.isEmpty());
+  }
+
+  private static void assertSameItemsets(Map<String, Double> actual) {
+    assertEquals(expected.keySet(), actual.keySet());
+    for (Map.Entry<String, Double> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), actual.get(entry.getKey()), DELTA, entry.getKey());
+    }
+  }
+
+  @Test
+  void projection() {
+    Apriori apriori = apriori(MiningEngine.LEVEL_WISE);
+    apriori.setProjection(!Apriori.DEFAULT_PROJECTION);
+    apriori.run();
+    assertSameItemsets(TestDatabases.toMap(apriori.getHighAUtilityItemsetsCount()));
+  }
+
+  @Test
+  void batches() {
+    IncrementalMiner miner = new IncrementalMiner(MIN_SUP, PRE_LARGE_THRESHOLD);
+    int[] ends = {2200, 2400, 2600, 2800, 3000};
+    int from = 0;
+    for (int end : ends) {
+      miner.addBatch(database.range(from, end));
+      from = end;
+    }
+    assertSameItemsets(TestDatabases.toMap(miner.currentHAUIs()));
+  }
+
+  @Test
+  void batchFiles() throws IOException {
+    IncrementalMiner miner = new IncrementalMiner(MIN_SUP, PRE_LARGE_THRESHOLD);
+    // every batch is as large as all the earlier ones, so they are loaded again and mined
+    int[] ends = {750, 1500, 3000};
+    int from = 0;
+    for (int end : ends) {
+      Path batchFile = directory.resolve("batch-" + end + ".bin");
+      BinaryDataset.write(database.range(from, end), batchFile);
+      miner.addBatch(batchFile.toString());
+      assertTrue(miner.wasReMined());
+      from = end;
+    }
+    assertSameItemsets(TestDatabases.toMap(miner.currentHAUIs()));
+  }
+
+  @Test
+  void vertical() {
+    Apriori apriori = apriori(MiningEngine.VERTICAL);
+    apriori.run();
+    assertSameItemsets(TestDatabases.toMap(apriori.getHighAUtilityItemsetsCount()));
+  }
+
+  @Test
+  void depthFirst() {
+    Apriori apriori = apriori(MiningEngine.DEPTH_FIRST);
+    apriori.run();
+    assertSameItemsets(TestDatabases.toMap(apriori.getHighAUtilityItemsetsCount()));
+  }
+
+  @Test
+  void partitions() throws IOException {
+    Apriori apriori = apriori(MiningEngine.LEVEL_WISE);
+    PartitionMiner miner = new PartitionMiner(apriori, 3, directory, List.of("-t", "1"));
+    miner.mine(MIN_SUP, null);
+    miner.deleteWorkFiles();
+    assertSameItemsets(TestDatabases.toMap(miner.getHighAUtilityItemsetsCount()));
+  }
+}
@@ -0,0 +1,85 @@
+package tw.idv.wmt35.apriori_haui;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Round trips of the binary itemsets file.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+class ResultSinkTest {
+  @TempDir Path directory;
+
+  @Test
+  void readsBackTheItemsetsInOrder() throws IOException {
+    ItemsetMap preLarge = new ItemsetMap();
+    preLarge.put(new int[] {3, 4}, 2.5);
+    preLarge.put(new int[] {1, 2, 3}, 1.0 / 3.0);
+    Path path = directory.resolve("result.bin");
+    try (ResultSink sink = new ResultSink(path, ResultSink.Format.BINARY)) {
+      sink.high(new int[] {1, 2}, 3.5);
+      // items of several varint bytes
+      sink.high(new int[] {7, 70000, 1 << 30}, 1e9);
+      sink.writeAll(preLarge, false);
+      assertEquals(2, sink.getNumHigh());
+      assertEquals(2, sink.getNumPreLarge());
+    }
+
+    List<int[]> itemsets = new ArrayList<>();
+    List<Double> aUtilities = new ArrayList<>();
+    List<Boolean> highs = new ArrayList<>();
+    ResultSink.read(
+        path,
+        (itemset, aUtility, high) -> {
+          itemsets.add(itemset);
+          aUtilities.add(aUtility);
+          highs.add(high);
+        });
+
+    assertEquals(4, itemsets.size());
+    assertArrayEquals(new int[] {1, 2}, itemsets.get(0));
+    assertArrayEquals(new int[] {7, 70000, 1 << 30}, itemsets.get(1));
+    assertArrayEquals(new int[] {3, 4}, itemsets.get(2));
+    assertArrayEquals(new int[] {1, 2, 3}, itemsets.get(3));
+    assertEquals(List.of(3.5, 1e9, 2.5, 1.0 / 3.0), aUtilities);
+    assertEquals(List.of(true, true, false, false), highs);
+  }
+
+  @Test
+  void tagsTheHighItemsetsOfASweep() throws IOException {
+    Path path = directory.resolve("result.csv");
+    ThresholdSweep sweep = new ThresholdSweep(new double[] {0.2, 0.1, 0.4}, 100);
+    try (ResultSink sink = new ResultSink(path, ResultSink.Format.CSV)) {
+      sink.setThresholdSweep(sweep);
+      sink.high(new int[] {1, 2}, 25);
+      sink.high(new int[] {3}, 40);
+      sink.preLarge(new int[] {4}, 5);
+    }
+    assertEquals(
+        List.of(
+            "itemset,average_utility,kind,threshold",
+            "1 2,25.0,high,0.2",
+            "3,40.0,high,0.4",
+            "4,5.0,prelarge,"),
+        Files.readAllLines(path));
+  }
+
+  @Test
+  void refusesCsv() throws IOException {
+    Path path = directory.resolve("result.csv");
+    try (ResultSink sink = new ResultSink(path, ResultSink.Format.CSV)) {
+      sink.high(new int[] {1}, 1.0);
+    }
+    assertThrows(IOException.class, () -> ResultSink.read(path, (itemset, aUtility, high) -> {}));
+  }
+}
@@ -0,0 +1,184 @@
+package tw.idv.wmt35.apriori_haui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Round trips of the state file of the incremental miner, and logs cut off or damaged at their
+ * tail.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+class StateStoreTest {
+  private static final double MIN_SUP = 0.01;
+  private static final double PRE_LARGE_THRESHOLD = 0.005;
+  private static final int NUM_BATCHES = 3;
+
+  @TempDir Path directory;
+  private Path stateFile;
+  private final List<String> batchFiles = new ArrayList<>();
+
+  // a large first batch, and later ones small enough to be added without mining all of them
+  @BeforeEach
+  void writeBatches() throws IOException {
+    stateFile = directory.resolve("state.bin");
+    TransactionDatabase database = TestDatabases.generate(1300, 30, 10, 4);
+    int[] ends = {1000, 1100, 1200, 1300};
+    int from = 0;
+    for (int b = 0; b < ends.length; ++b) {
+      Path batchFile = directory.resolve("batch-" + b + ".bin");
+      BinaryDataset.write(database.range(from, ends[b]), batchFile);
+      batchFiles.add(batchFile.toAbsolutePath().toString());
+      from = ends[b];
+    }
+  }
+
+  private static IncrementalMiner miner(StateStore store) {
+    IncrementalMiner miner = new IncrementalMiner(MIN_SUP, PRE_LARGE_THRESHOLD);
+    miner.setStateStore(store);
+    return miner;
+  }
+
+  private static void assertSameState(IncrementalMiner expected, StateStore actual) {
+    assertEquals(expected.getNumBatches(), actual.getNumBatches());
+    assertEquals(expected.getTotalUtility(), actual.getTotalUtility());
+    assertEquals(expected.getReScanRemainingUtility(), actual.getReScanRemainingUtility());
+    assertEquals(expected.getCountReScan(), actual.getCountReScan());
+    assertEquals(
+        TestDatabases.toMap(expected.currentHAUIs()),
+        TestDatabases.toMap(actual.copyHighItemsets()));
+    assertEquals(
+        TestDatabases.toMap(expected.currentPreLarge()),
+        TestDatabases.toMap(actual.copyPreLargeItemsets()));
+  }
+
+  @Test
+  void readsBackTheAddedBatches() throws IOException {
+    IncrementalMiner miner;
+    try (StateStore store = new StateStore(stateFile)) {
+      miner = miner(store);
+      for (int b = 0; b < NUM_BATCHES; ++b) miner.addBatch(batchFiles.get(b));
+      // only the first batch was mined as a whole, the others were appended
+      assertFalse(miner.wasReMined());
+      assertEquals(1, store.getNumCompactions());
+    }
+
+    try (StateStore store = new StateStore(stateFile)) {
+      assertSameState(miner, store);
+      assertEquals(batchFiles.subList(0, NUM_BATCHES), store.getBatchFiles());
+
+      // a later run goes on with the next batch as if it had added all of them
+      IncrementalMiner resumed = miner(store);
+      resumed.addBatch(batchFiles.get(NUM_BATCHES));
+      IncrementalMiner all = new IncrementalMiner(MIN_SUP, PRE_LARGE_THRESHOLD);
+      for (String batchFile : batchFiles) all.addBatch(batchFile);
+      assertEquals(
+          TestDatabases.toMap(all.currentHAUIs()), TestDatabases.toMap(resumed.currentHAUIs()));
+      assertEquals(
+          TestDatabases.toMap(all.currentPreLarge()),
+          TestDatabases.toMap(resumed.currentPreLarge()));
+    }
+  }
+
+  @Test
+  void compactionKeepsTheState() throws IOException {
+    IncrementalMiner miner;
+    try (StateStore store = new StateStore(stateFile)) {
+      miner = miner(store);
+      for (int b = 0; b < NUM_BATCHES; ++b) miner.addBatch(batchFiles.get(b));
+      long size = Files.size(stateFile);
+      store.compact();
+      assertEquals(2, store.getNumCompactions());
+      assertTrue(Files.size(stateFile) < size);
+    }
+
+    try (StateStore store = new StateStore(stateFile)) {
+      assertSameState(miner, store);
+      assertEquals(batchFiles.subList(0, NUM_BATCHES), store.getBatchFiles());
+    }
+  }
+
+  // adds the batches but the last, and gives the size of the log then
+  private long addAllButLast(Map<String, Double> high, Map<String, Double> preLarge)
+      throws IOException {
+    long size;
+    try (StateStore store = new StateStore(stateFile)) {
+      IncrementalMiner miner = miner(store);
+      for (int b = 0; b < NUM_BATCHES - 1; ++b) miner.addBatch(batchFiles.get(b));
+      size = Files.size(stateFile);
+      high.putAll(TestDatabases.toMap(miner.currentHAUIs()));
+      preLarge.putAll(TestDatabases.toMap(miner.currentPreLarge()));
+      miner.addBatch(batchFiles.get(NUM_BATCHES - 1));
+      assertFalse(miner.wasReMined());
+    }
+    assertTrue(Files.size(stateFile) > size);
+    return size;
+  }
+
+  private void assertLastBatchDropped(
+      long size, Map<String, Double> high, Map<String, Double> preLarge) throws IOException {
+    try (StateStore store = new StateStore(stateFile)) {
+      assertEquals(NUM_BATCHES - 1, store.getNumBatches());
+      assertEquals(batchFiles.subList(0, NUM_BATCHES - 1), store.getBatchFiles());
+      assertEquals(high, TestDatabases.toMap(store.copyHighItemsets()));
+      assertEquals(preLarge, TestDatabases.toMap(store.copyPreLargeItemsets()));
+    }
+    assertEquals(size, Files.size(stateFile));
+  }
+
+  @Test
+  void dropsARecordCutOff() throws IOException {
+    Map<String, Double> high = new TreeMap<>();
+    Map<String, Double> preLarge = new TreeMap<>();
+    long size = addAllButLast(high, preLarge);
+    try (FileChannel channel = FileChannel.open(stateFile, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+    assertLastBatchDropped(size, high, preLarge);
+  }
+
+  @Test
+  void dropsARecordOfAnotherChecksum() throws IOException {
+    Map<String, Double> high = new TreeMap<>();
+    Map<String, Double> preLarge = new TreeMap<>();
+    long size = addAllButLast(high, preLarge);
+    byte[] log = Files.readAllBytes(stateFile);
+    // a byte in the middle of the last record
+    log[(int) (size + (log.length - size) / 2)] ^= 0x10;
+    Files.write(stateFile, log);
+    assertLastBatchDropped(size, high, preLarge);
+  }
+
+  @Test
+  void refusesOtherThresholds() throws IOException {
+    try (StateStore store = new StateStore(stateFile)) {
+      miner(store).addBatch(batchFiles.get(0));
+    }
+    try (StateStore store = new StateStore(stateFile)) {
+      assertThrows(
+          IllegalStateException.class,
+          () -> new IncrementalMiner(MIN_SUP * 2, PRE_LARGE_THRESHOLD).setStateStore(store));
+    }
+  }
+
+  @Test
+  void refusesAnotherFile() throws IOException {
+    Files.write(stateFile, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+    assertThrows(IOException.class, () -> new StateStore(stateFile));
+  }
+}
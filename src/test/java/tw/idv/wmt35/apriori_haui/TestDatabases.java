@@ -0,0 +1,82 @@
+package tw.idv.wmt35.apriori_haui;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Small reproducible transaction databases for the tests, and the checks shared by them.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+final class TestDatabases {
+  private TestDatabases() {}
+
+  /** A database whose transactions hold about maxLength / 2 of numItems items. */
+  static TransactionDatabase generate(int numTransactions, int numItems, int maxLength, long seed) {
+    Random random = new Random(seed);
+    TransactionDatabase database = new TransactionDatabase();
+    int[] itemBuffer = new int[numItems];
+    int[] utilityBuffer = new int[numItems];
+
+    for (int t = 0; t < numTransactions; ++t) {
+      int length = 0;
+      int tranUtility = 0;
+      for (int item = 1; item <= numItems && length < maxLength; ++item) {
+        if (random.nextInt(2 * numItems) < maxLength) {
+          itemBuffer[length] = item;
+          utilityBuffer[length] = 1 + random.nextInt(20);
+          tranUtility += utilityBuffer[length];
+          ++length;
+        }
+      }
+      if (length == 0) {
+        itemBuffer[0] = 1 + random.nextInt(numItems);
+        utilityBuffer[0] = 1 + random.nextInt(20);
+        tranUtility = utilityBuffer[0];
+        length = 1;
+      }
+      database.add(itemBuffer, utilityBuffer, length, tranUtility);
+    }
+
+    database.trimToSize();
+    return database;
+  }
+
+  /** The itemsets of a map by their printed form, which compares by value. */
+  static Map<String, Double> toMap(ItemsetMap itemsets) {
+    Map<String, Double> map = new TreeMap<>();
+    for (int e = itemsets.first(); e >= 0; e = itemsets.next(e)) {
+      map.put(itemsets.keyString(e), itemsets.value(e));
+    }
+    return map;
+  }
+
+  /** Checks that both databases hold the same transactions. */
+  static void assertSameTransactions(TransactionDatabase expected, TransactionDatabase actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.getNumItems(), actual.getNumItems());
+    assertEquals(expected.getMaxItemID(), actual.getMaxItemID());
+    assertEquals(expected.getTotalUtility(), actual.getTotalUtility());
+    int numTransactions = expected.size();
+    int numItems = expected.getNumItems();
+    assertArrayEquals(
+        Arrays.copyOf(expected.items(), numItems), Arrays.copyOf(actual.items(), numItems));
+    assertArrayEquals(
+        Arrays.copyOf(expected.utilities(), numItems),
+        Arrays.copyOf(actual.utilities(), numItems));
+    assertArrayEquals(
+        Arrays.copyOf(expected.offsets(), numTransactions + 1),
+        Arrays.copyOf(actual.offsets(), numTransactions + 1));
+    assertArrayEquals(
+        Arrays.copyOf(expected.tranUtilities(), numTransactions),
+        Arrays.copyOf(actual.tranUtilities(), numTransactions));
+    assertArrayEquals(
+        Arrays.copyOf(expected.maxUtilities(), numTransactions),
+        Arrays.copyOf(actual.maxUtilities(), numTransactions));
+  }
+}
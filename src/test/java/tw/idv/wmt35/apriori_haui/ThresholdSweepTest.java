@@ -0,0 +1,36 @@
+package tw.idv.wmt35.apriori_haui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The HAUIs of the thresholds of a sweep derived from the lowest one.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+class ThresholdSweepTest {
+  @Test
+  void tagsEveryItemsetWithTheHighestThresholdItReaches() {
+    ThresholdSweep sweep = new ThresholdSweep(new double[] {0.3, 0.1, 0.2}, 1000);
+    assertEquals(0.1, sweep.getMinSup());
+    assertEquals(-1, sweep.highest(99));
+    assertEquals(0, sweep.highest(100));
+    assertEquals(1, sweep.highest(250));
+    assertEquals(2, sweep.highest(300));
+    assertEquals(0.3, sweep.minSup(sweep.highest(1000)));
+  }
+
+  @Test
+  void countsEveryItemsetAtTheThresholdsItReaches() {
+    ThresholdSweep sweep = new ThresholdSweep(new double[] {0.1, 0.2, 0.3}, 1000);
+    ItemsetMap itemsets = new ItemsetMap();
+    itemsets.put(new int[] {1}, 100);
+    itemsets.put(new int[] {2}, 250);
+    itemsets.put(new int[] {1, 2}, 300);
+    sweep.addAll(itemsets);
+    assertEquals(3, sweep.numHAUIs(0));
+    assertEquals(2, sweep.numHAUIs(1));
+    assertEquals(1, sweep.numHAUIs(2));
+  }
+}
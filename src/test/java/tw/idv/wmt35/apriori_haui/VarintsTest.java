@@ -0,0 +1,46 @@
+package tw.idv.wmt35.apriori_haui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round trips of the varints at the bounds of their lengths.
+ *
+ * @author Jimmy Ming-Tai Wu
+ */
+class VarintsTest {
+  private static final int[] VALUES = {
+    0, 1, 127, 128, 16383, 16384, 1 << 21, (1 << 28) - 1, 1 << 28, Integer.MAX_VALUE, -1
+  };
+
+  @Test
+  void readsBackWhatItWrote() {
+    byte[] bytes = new byte[VALUES.length * Varints.MAX_BYTES];
+    int end = 0;
+    for (int value : VALUES) end = Varints.put(bytes, end, value);
+
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    int[] cursor = {0};
+    for (int value : VALUES) assertEquals(value, Varints.get(buffer, cursor));
+    assertEquals(end, cursor[0]);
+  }
+
+  @Test
+  void readsBackWhatItWroteToABuffer() {
+    ByteBuffer buffer = ByteBuffer.allocate(VALUES.length * Varints.MAX_BYTES);
+    for (int value : VALUES) Varints.put(buffer, value);
+    buffer.flip();
+    for (int value : VALUES) assertEquals(value, Varints.get(buffer));
+    assertEquals(0, buffer.remaining());
+  }
+
+  @Test
+  void writesSevenBitsPerByte() {
+    byte[] bytes = new byte[Varints.MAX_BYTES];
+    assertEquals(1, Varints.put(bytes, 0, 127));
+    assertEquals(2, Varints.put(bytes, 0, 128));
+    assertEquals(Varints.MAX_BYTES, Varints.put(bytes, 0, -1));
+  }
+}